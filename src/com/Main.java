@@ -1,7 +1,10 @@
 package com;
 
 import com.model.*;
+import com.service.RecordingTaxiManager;
 import com.service.TaxiManager;
+import com.service.TrafficRecorder;
+import java.io.IOException;
 import java.util.InputMismatchException;
 import java.util.List;
 import java.util.Scanner;
@@ -11,13 +14,39 @@ import java.util.Scanner;
  * Implements a state-based menu system for a clearer user flow.
  */
 public class Main {
-    private static TaxiManager taxiManager = new TaxiManager();
+    private static TaxiManager taxiManager;
+    private static TrafficRecorder recorder = null;
     private static Scanner scanner = new Scanner(System.in);
     private static Passenger currentPassenger = null;
+    private static String sessionToken = null;
 
     public static void main(String[] args) {
+        // "--record <file>" captures every call for later replay with TrafficReplayer.
+        if (args.length == 2 && args[0].equals("--record")) {
+            try {
+                recorder = new TrafficRecorder(args[1]);
+                taxiManager = new RecordingTaxiManager(recorder);
+                // Closing flushes the tail of the recording, so do it however the program ends.
+                Runtime.getRuntime().addShutdownHook(new Thread(Main::closeRecorder, "close-recording"));
+                System.out.println("Recording traffic to " + args[1]);
+            } catch (IOException e) {
+                System.err.println("Could not start recording: " + e.getMessage());
+                return;
+            }
+        } else {
+            taxiManager = new TaxiManager();
+        }
+
         // The main application loop.
         while (true) {
+            if (sessionToken != null) {
+                // The token is the only thing kept between menus; the passenger is looked up from it each time.
+                currentPassenger = taxiManager.getSessionPassenger(sessionToken);
+                if (currentPassenger == null) {
+                    sessionToken = null;
+                    System.out.println("Your session has expired. Please log in again.");
+                }
+            }
             if (currentPassenger == null) {
                 showLoginMenu();
             } else {
@@ -26,6 +55,15 @@ public class Main {
         }
     }
 
+    private static void closeRecorder() {
+        if (recorder == null) return;
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            System.err.println("Error closing traffic recording: " + e.getMessage());
+        }
+    }
+
     /**
      * Displays the first menu for logging in or registering.
      */
@@ -82,6 +120,8 @@ public class Main {
                     handleViewHistory();
                     break;
                 case 3:
+                    taxiManager.logout(sessionToken);
+                    sessionToken = null;
                     currentPassenger = null;
                     System.out.println("Logged out successfully.");
                     break;
@@ -113,16 +153,19 @@ public class Main {
             Location destination = new Location(x2, y2);
             scanner.nextLine(); 
 
+            System.out.print("Share the ride with other passengers? (y/n): ");
+            boolean shared = scanner.nextLine().trim().equalsIgnoreCase("y");
+
             if (origin.equals(destination)) {
                 System.out.println("Error: Origin and destination cannot be the same.");
                 return;
             }
 
-            Trip activeTrip = taxiManager.requestTrip(currentPassenger, origin, destination);
+            Trip requestedTrip = taxiManager.requestTrip(currentPassenger, origin, destination, shared);
 
-            // If a driver was found and the trip is now active, show the active trip menu.
-            if (activeTrip != null) {
-                showActiveTripMenu(activeTrip);
+            // If the trip was offered to a driver, wait for it to be accepted.
+            if (requestedTrip != null) {
+                showWaitingForDriverMenu(requestedTrip);
             }
         } catch (InputMismatchException e) {
             System.out.println("Invalid coordinate. Please enter numbers only.");
@@ -130,6 +173,64 @@ public class Main {
         }
     }
 
+    /**
+     * Displays a menu while a REQUESTED trip waits for a driver to accept it.
+     * Offers time out in the background, so the trip status is re-checked on every loop.
+     * Since this is a console demo, the driver's response is simulated from here.
+     * @param requestedTrip The trip that is waiting for a driver.
+     */
+    private static void showWaitingForDriverMenu(Trip requestedTrip) {
+        while (true) {
+            if (requestedTrip.getStatus() == TripStatus.IN_PROGRESS) {
+                showActiveTripMenu(requestedTrip);
+                return;
+            }
+            if (requestedTrip.getStatus() != TripStatus.REQUESTED) {
+                System.out.println("Your trip request was not accepted. Returning to main menu.");
+                return;
+            }
+
+            Driver offeredDriver = taxiManager.getOfferedDriver(requestedTrip);
+            System.out.println("\n--- Waiting for Driver ---");
+            System.out.println("Trip offered to driver " + (offeredDriver == null ? "-" : offeredDriver.getName()) + ".");
+            System.out.println("1. Refresh status");
+            System.out.println("2. Simulate driver accepting");
+            System.out.println("3. Simulate driver declining");
+            System.out.println("4. Cancel Request");
+            System.out.print("Choose an option: ");
+            try {
+                int choice = scanner.nextInt();
+                scanner.nextLine();
+
+                // The offer may have moved on while we were waiting for input.
+                if (offeredDriver != taxiManager.getOfferedDriver(requestedTrip)) {
+                    System.out.println("The offer has changed. Please check again.");
+                    continue;
+                }
+
+                switch (choice) {
+                    case 1:
+                        break;
+                    case 2:
+                        taxiManager.acceptOffer(offeredDriver, requestedTrip);
+                        break;
+                    case 3:
+                        taxiManager.declineOffer(offeredDriver, requestedTrip);
+                        break;
+                    case 4:
+                        taxiManager.cancelTrip(requestedTrip);
+                        System.out.println("Your request has been cancelled. Returning to main menu.");
+                        return;
+                    default:
+                        System.out.println("Invalid option. Please choose 1 to 4.");
+                }
+            } catch (InputMismatchException e) {
+                System.out.println("Invalid input. Please enter a number.");
+                scanner.nextLine();
+            }
+        }
+    }
+
     /**
      * Displays a dedicated menu for managing an IN_PROGRESS trip.
      * This menu will loop until the trip is either cancelled or ended.
@@ -234,7 +335,8 @@ public class Main {
             return;
         }
 
-        currentPassenger = taxiManager.loginPassenger(name, password);
+        sessionToken = taxiManager.login(name, password);
+        currentPassenger = taxiManager.getSessionPassenger(sessionToken);
         if (currentPassenger == null) {
             System.out.println("Login failed. Invalid name or password.");
         } else {
@@ -7,18 +7,24 @@ public class Driver extends User {
     private String carDetails;
     private Location currentLocation;
     private boolean available;
+    // Passenger seats, used when the driver takes shared rides.
+    private int seats;
 
     public Driver(String id, String name, String carDetails, Location initialLocation) {
-        super(id, name, "driver_pass");
+        // Drivers do not log in, so they have no password of their own.
+        super(id, name, null);
         this.carDetails = carDetails;
         this.currentLocation = initialLocation;
         this.available = true;
+        this.seats = 3;
     }
 
     public Location getCurrentLocation() { return currentLocation; }
     public boolean isAvailable() { return available; }
     public String getCarDetails() { return carDetails; }
+    public int getSeats() { return seats; }
 
     public void setAvailable(boolean available) { this.available = available; }
     public void setCurrentLocation(Location currentLocation) { this.currentLocation = currentLocation; }
+    public void setSeats(int seats) { this.seats = seats; }
 }
\ No newline at end of file
@@ -9,8 +9,8 @@ import java.util.List;
 public class Passenger extends User {
     private List<Trip> tripHistory;
 
-    public Passenger(String id, String name, String password) {
-        super(id, name, password);
+    public Passenger(String id, String name, String passwordHash) {
+        super(id, name, passwordHash);
         this.tripHistory = new ArrayList<>();
     }
 
@@ -11,8 +11,11 @@ public class Trip {
     private Driver driver;
     private Location origin;
     private Location destination;
-    private TripStatus status;
+    // Offers can time out on the timer thread, so status changes must be visible to the menu thread.
+    private volatile TripStatus status;
     private double fare;
+    // Whether the passenger agreed to share the ride with other passengers.
+    private boolean shared;
 
     // This field is specifically for storing the driver's name in historical records,
     private String driverName;
@@ -60,6 +63,7 @@ public class Trip {
     public Location getDestination() { return destination; }
     public TripStatus getStatus() { return status; }
     public double getFare() { return fare; }
+    public boolean isShared() { return shared; }
 
     /**
      * Gets the driver's name.
@@ -94,4 +98,8 @@ public class Trip {
     public void setFare(double fare) {
         this.fare = fare;
     }
+
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
 }
\ No newline at end of file
@@ -6,15 +6,19 @@ package com.model;
 public abstract class User {
     private String id;
     private String name;
-    private String password;
+    // The salted password hash (see PasswordHasher), never the plaintext password.
+    // Volatile because a login may upgrade it on the login pool.
+    private volatile String passwordHash;
 
-    public User(String id, String name, String password) {
+    public User(String id, String name, String passwordHash) {
         this.id = id;
         this.name = name;
-        this.password = password;
+        this.passwordHash = passwordHash;
     }
 
     public String getId() { return id; }
     public String getName() { return name; }
-    public String getPassword() { return password; }
+    public String getPasswordHash() { return passwordHash; }
+
+    public void setPasswordHash(String passwordHash) { this.passwordHash = passwordHash; }
 }
\ No newline at end of file
@@ -0,0 +1,126 @@
+package com.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides whether a trip request may enter dispatch at all.
+ * <p>
+ * Each passenger has a token bucket, so one client cannot flood the service. On top of
+ * that, the number of requests inside dispatch (running or waiting for the dispatch lock)
+ * is capped. While the recent dispatch latency is above a threshold the cap drops to a
+ * much smaller queue, so excess requests are turned away straight away instead of piling
+ * up behind the lock and dragging everyone's latency up with them.
+ */
+public class AdmissionController {
+    private final int burst;
+    private final double refillPerNano;
+    private final int maxInFlight;
+    private final int maxInFlightWhenSlow;
+    private final long latencyThresholdNanos;
+    private final LongSupplier clock;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Exponentially weighted average of recent dispatch latency. Updates may race; an
+    // occasional lost sample does not matter for an average.
+    private volatile double averageLatencyNanos;
+
+    /**
+     * @param burst How many requests a passenger may make back to back.
+     * @param refillPerSecond How many requests per second a passenger earns back.
+     * @param maxInFlight The most requests allowed in dispatch at once under normal load.
+     * @param maxInFlightWhenSlow The most requests allowed in dispatch while latency is over the threshold.
+     * @param latencyThresholdMillis The average dispatch latency above which load is shed.
+     * @param clock The time in nanoseconds that rate limits are refilled against,
+     *              normally {@link System#nanoTime()}.
+     */
+    public AdmissionController(int burst, double refillPerSecond, int maxInFlight, int maxInFlightWhenSlow,
+                               long latencyThresholdMillis, LongSupplier clock) {
+        this.burst = burst;
+        this.refillPerNano = refillPerSecond / 1_000_000_000.0;
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightWhenSlow = maxInFlightWhenSlow;
+        this.latencyThresholdNanos = latencyThresholdMillis * 1_000_000;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes one token from a passenger's bucket.
+     * @return false if the passenger is over their rate limit.
+     */
+    public boolean tryConsume(String passengerId) {
+        long now = clock.getAsLong();
+        TokenBucket bucket = buckets.computeIfAbsent(passengerId, id -> new TokenBucket(burst, now));
+        return bucket.tryConsume(now, burst, refillPerNano);
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryConsume(String)} for a request that was then shed.
+     */
+    public void refund(String passengerId) {
+        TokenBucket bucket = buckets.get(passengerId);
+        if (bucket != null) {
+            bucket.refund(burst);
+        }
+    }
+
+    /**
+     * Reserves a place in dispatch. Every successful call must be paired with {@link #exit(long)}.
+     * @return false if dispatch is full and the request should be shed.
+     */
+    public boolean enter() {
+        int limit = isOverloaded() ? maxInFlightWhenSlow : maxInFlight;
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases a place in dispatch and records how long the request took.
+     * @param latencyNanos The time from {@link #enter()} to the end of dispatch.
+     */
+    public void exit(long latencyNanos) {
+        inFlight.decrementAndGet();
+        averageLatencyNanos += (latencyNanos - averageLatencyNanos) * 0.1;
+    }
+
+    public boolean isOverloaded() {
+        return averageLatencyNanos > latencyThresholdNanos;
+    }
+
+    public double getAverageLatencyMillis() {
+        return averageLatencyNanos / 1_000_000.0;
+    }
+
+    private static class TokenBucket {
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(int burst, long now) {
+            this.tokens = burst;
+            this.lastRefill = now;
+        }
+
+        synchronized boolean tryConsume(long now, int burst, double refillPerNano) {
+            // Calls from different threads can arrive slightly out of clock order; never refill backwards.
+            if (now > lastRefill) {
+                tokens = Math.min(burst, tokens + (now - lastRefill) * refillPerNano);
+                lastRefill = now;
+            }
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        synchronized void refund(int burst) {
+            tokens = Math.min(burst, tokens + 1);
+        }
+    }
+}
@@ -3,14 +3,21 @@ package com.service;
 import com.model.*;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Manages saving and loading of application data to/from JSON files.
@@ -20,6 +27,7 @@ public class DataManager {
     private static final String DATA_DIR = "data";
     private static final String PASSENGERS_FILE = DATA_DIR + "/passengers.json";
     private static final String DRIVERS_FILE = DATA_DIR + "/drivers.json";
+    private static final String CSV_HEADER = "id,name,carDetails,x,y,available,seats";
 
     public DataManager() {
         new File(DATA_DIR).mkdirs();
@@ -40,7 +48,7 @@ public class DataManager {
             JSONObject passengerJson = new JSONObject();
             passengerJson.put("id", p.getId());
             passengerJson.put("name", p.getName());
-            passengerJson.put("password", p.getPassword());
+            passengerJson.put("passwordHash", p.getPasswordHash());
 
             JSONArray historyArray = new JSONArray();
             for (Trip trip : p.getTripHistory()) {
@@ -74,27 +82,7 @@ public class DataManager {
     }
 
     private void saveDrivers(Map<String, Driver> drivers) {
-        JSONArray driverArray = new JSONArray();
-        for (Driver d : drivers.values()) {
-            JSONObject driverJson = new JSONObject();
-            driverJson.put("id", d.getId());
-            driverJson.put("name", d.getName());
-            driverJson.put("carDetails", d.getCarDetails());
-            driverJson.put("available", d.isAvailable());
-
-            JSONObject locationJson = new JSONObject();
-            locationJson.put("x", d.getCurrentLocation().getX());
-            locationJson.put("y", d.getCurrentLocation().getY());
-            driverJson.put("currentLocation", locationJson);
-
-            driverArray.put(driverJson);
-        }
-
-        try (FileWriter file = new FileWriter(DRIVERS_FILE)) {
-            file.write(driverArray.toString(4));
-        } catch (IOException e) {
-            System.err.println("Error saving drivers to JSON: " + e.getMessage());
-        }
+        exportDrivers(DRIVERS_FILE, drivers.values());
     }
 
     public Map<String, Passenger> loadPassengers() {
@@ -108,10 +96,14 @@ public class DataManager {
 
             for (int i = 0; i < passengerArray.length(); i++) {
                 JSONObject passengerJson = passengerArray.getJSONObject(i);
+                // Older files stored the plaintext password; keep it marked as legacy until it is rehashed.
+                String passwordHash = passengerJson.has("passwordHash")
+                    ? passengerJson.getString("passwordHash")
+                    : PasswordHasher.legacy(passengerJson.getString("password"));
                 Passenger p = new Passenger(
                     passengerJson.getString("id"),
                     passengerJson.getString("name"),
-                    passengerJson.getString("password")
+                    passwordHash
                 );
 
                 if (passengerJson.has("tripHistory")) {
@@ -142,30 +134,205 @@ public class DataManager {
 
     public Map<String, Driver> loadDrivers() {
         Map<String, Driver> drivers = new HashMap<>();
-        try {
-            File file = new File(DRIVERS_FILE);
-            if (!file.exists()) return drivers;
+        if (new File(DRIVERS_FILE).exists()) {
+            importDrivers(DRIVERS_FILE, d -> drivers.put(d.getId(), d));
+        }
+        return drivers;
+    }
 
-            String content = new String(Files.readAllBytes(Paths.get(file.toURI())));
-            JSONArray driverArray = new JSONArray(content);
-
-            for (int i = 0; i < driverArray.length(); i++) {
-                JSONObject driverJson = driverArray.getJSONObject(i);
-                JSONObject locationJson = driverJson.getJSONObject("currentLocation");
-                Location loc = new Location(locationJson.getInt("x"), locationJson.getInt("y"));
-
-                Driver d = new Driver(
-                    driverJson.getString("id"),
-                    driverJson.getString("name"),
-                    driverJson.getString("carDetails"),
-                    loc
-                );
-                d.setAvailable(driverJson.getBoolean("available"));
-                drivers.put(d.getId(), d);
+    /**
+     * Streams drivers from a CSV or JSON file, handing each one to the consumer as soon as
+     * it is read, so files with millions of drivers never have to fit in memory at once.
+     * Files ending in ".csv" are read as CSV with the columns id,name,carDetails,x,y,available,seats;
+     * anything else is read as a JSON array in the same format as drivers.json.
+     * @param path The file to read.
+     * @param consumer Receives each driver in file order.
+     * @return The number of drivers read, up to the first error if there is one.
+     */
+    public int importDrivers(String path, Consumer<Driver> consumer) {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            if (isCsv(path)) {
+                String record;
+                while ((record = readCsvRecord(reader)) != null) {
+                    if (record.trim().isEmpty() || record.startsWith(CSV_HEADER)) continue;
+                    consumer.accept(driverFromCsv(record));
+                    count++;
+                }
+            } else {
+                JSONTokener tokener = new JSONTokener(reader);
+                if (tokener.nextClean() != '[') {
+                    throw tokener.syntaxError("Expected a JSON array of drivers");
+                }
+                if (tokener.nextClean() != ']') {
+                    tokener.back();
+                    while (true) {
+                        consumer.accept(driverFromJson(new JSONObject(tokener)));
+                        count++;
+                        char next = tokener.nextClean();
+                        if (next == ']') break;
+                        if (next != ',') throw tokener.syntaxError("Expected ',' or ']'");
+                    }
+                }
             }
         } catch (Exception e) {
-            System.err.println("Error loading drivers from JSON: " + e.getMessage());
+            System.err.println("Error importing drivers from " + path + " after " + count + " records: " + e.getMessage());
         }
-        return drivers;
+        return count;
+    }
+
+    /**
+     * Streams drivers to a CSV or JSON file, one record at a time.
+     * The format is chosen by the file extension, as in {@link #importDrivers(String, Consumer)}.
+     * @param path The file to write.
+     * @param drivers The drivers to write.
+     * @return The number of drivers written, or -1 if writing failed.
+     */
+    public int exportDrivers(String path, Iterable<Driver> drivers) {
+        int count = 0;
+        boolean csv = isCsv(path);
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            writer.write(csv ? CSV_HEADER : "[");
+            for (Driver d : drivers) {
+                if (csv) {
+                    writer.write("\n");
+                    writer.write(driverToCsv(d));
+                } else {
+                    writer.write(count == 0 ? "\n    " : ",\n    ");
+                    writer.write(driverToJson(d).toString());
+                }
+                count++;
+            }
+            writer.write(csv ? "\n" : "\n]\n");
+        } catch (IOException e) {
+            System.err.println("Error exporting drivers to " + path + ": " + e.getMessage());
+            return -1;
+        }
+        return count;
+    }
+
+    private static boolean isCsv(String path) {
+        return path.toLowerCase().endsWith(".csv");
+    }
+
+    private JSONObject driverToJson(Driver d) {
+        JSONObject driverJson = new JSONObject();
+        driverJson.put("id", d.getId());
+        driverJson.put("name", d.getName());
+        driverJson.put("carDetails", d.getCarDetails());
+        driverJson.put("available", d.isAvailable());
+        driverJson.put("seats", d.getSeats());
+
+        JSONObject locationJson = new JSONObject();
+        locationJson.put("x", d.getCurrentLocation().getX());
+        locationJson.put("y", d.getCurrentLocation().getY());
+        driverJson.put("currentLocation", locationJson);
+        return driverJson;
+    }
+
+    private Driver driverFromJson(JSONObject driverJson) {
+        JSONObject locationJson = driverJson.getJSONObject("currentLocation");
+        Location loc = new Location(locationJson.getInt("x"), locationJson.getInt("y"));
+
+        Driver d = new Driver(
+            driverJson.getString("id"),
+            driverJson.getString("name"),
+            driverJson.getString("carDetails"),
+            loc
+        );
+        d.setAvailable(driverJson.optBoolean("available", true));
+        d.setSeats(driverJson.optInt("seats", d.getSeats()));
+        return d;
+    }
+
+    private String driverToCsv(Driver d) {
+        return csvField(d.getId()) + "," + csvField(d.getName()) + "," + csvField(d.getCarDetails()) + ","
+            + d.getCurrentLocation().getX() + "," + d.getCurrentLocation().getY() + ","
+            + d.isAvailable() + "," + d.getSeats();
+    }
+
+    private Driver driverFromCsv(String line) {
+        List<String> fields = parseCsvLine(line);
+        if (fields.size() < 5) {
+            throw new IllegalArgumentException("Expected at least 5 columns but got " + fields.size() + ": " + line);
+        }
+        Driver d = new Driver(fields.get(0), fields.get(1), fields.get(2),
+            new Location(Integer.parseInt(fields.get(3).trim()), Integer.parseInt(fields.get(4).trim())));
+        if (fields.size() > 5 && !fields.get(5).trim().isEmpty()) {
+            d.setAvailable(Boolean.parseBoolean(fields.get(5).trim()));
+        }
+        if (fields.size() > 6 && !fields.get(6).trim().isEmpty()) {
+            d.setSeats(Integer.parseInt(fields.get(6).trim()));
+        }
+        return d;
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Reads one CSV record. A record goes on over several lines while a quoted field
+     * is still open, so values containing line breaks read back as they were written.
+     * @return The record without its final line break, or null at the end of the file.
+     */
+    private static String readCsvRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        int quotes = countQuotes(line);
+        StringBuilder record = new StringBuilder(line);
+        while (quotes % 2 != 0) {
+            line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Unterminated quoted field in record: " + record);
+            }
+            record.append('\n').append(line);
+            quotes += countQuotes(line);
+        }
+        return record.toString();
+    }
+
+    private static int countQuotes(String line) {
+        int quotes = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') quotes++;
+        }
+        return quotes;
+    }
+
+    /**
+     * Splits one CSV record, honouring double-quoted fields and doubled quotes inside them.
+     */
+    private static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
     }
-}
\ No newline at end of file
+}
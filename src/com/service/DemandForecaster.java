@@ -0,0 +1,89 @@
+package com.service;
+
+import com.model.Location;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps an exponentially decayed request rate for each cell of a square grid.
+ * Recording a request is a single map lookup and a few arithmetic operations,
+ * so it is cheap enough to call from the dispatch path.
+ */
+public class DemandForecaster {
+    private final Grid grid;
+    private final double decayNanos;
+    private final Map<Long, CellRate> cells = new ConcurrentHashMap<>();
+
+    /**
+     * @param grid The grid whose cells demand is tracked for.
+     * @param halfLifeMillis How long it takes for an old request to count half as much.
+     */
+    public DemandForecaster(Grid grid, long halfLifeMillis) {
+        this.grid = grid;
+        this.decayNanos = halfLifeMillis * 1_000_000.0 / Math.log(2);
+    }
+
+    /**
+     * Records one trip request starting at the given location.
+     */
+    public void recordRequest(Location origin) {
+        long now = System.nanoTime();
+        cells.computeIfAbsent(cellOf(origin), key -> new CellRate(now)).add(now, decayNanos);
+    }
+
+    /**
+     * Returns the current decayed rate of every cell that still has meaningful demand.
+     * Cells whose rate has faded away are dropped from the table.
+     * @param minRate Rates below this value are treated as zero.
+     * @return A map from cell key to its decayed request rate.
+     */
+    public Map<Long, Double> snapshot(double minRate) {
+        long now = System.nanoTime();
+        Map<Long, Double> rates = new HashMap<>();
+        cells.entrySet().removeIf(entry -> {
+            double rate = entry.getValue().rateAt(now, decayNanos);
+            if (rate < minRate) {
+                return true;
+            }
+            rates.put(entry.getKey(), rate);
+            return false;
+        });
+        return rates;
+    }
+
+    /**
+     * Returns the key of the grid cell that contains a location.
+     */
+    public long cellOf(Location location) {
+        return grid.cellOf(location);
+    }
+
+    /**
+     * Returns the center point of a grid cell.
+     */
+    public Location centerOf(long cell) {
+        return grid.centerOf(cell);
+    }
+
+    /**
+     * A decayed counter: the stored value is only brought up to date when it is read or written.
+     */
+    private static class CellRate {
+        private double value;
+        private long lastUpdate;
+
+        CellRate(long now) {
+            this.lastUpdate = now;
+        }
+
+        synchronized void add(long now, double decayNanos) {
+            value = rateAt(now, decayNanos) + 1.0;
+            lastUpdate = now;
+        }
+
+        synchronized double rateAt(long now, double decayNanos) {
+            return value * Math.exp(-(now - lastUpdate) / decayNanos);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.service;
+
+import com.model.Driver;
+import com.model.Location;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A grid index of the drivers who are currently available, for nearest-driver searches.
+ * <p>
+ * Drivers are bucketed by the cell of their location. A search walks outwards ring by
+ * ring from the requested point and stops as soon as no unvisited cell can hold a closer
+ * driver, so its cost depends on how many drivers are nearby rather than on the fleet size.
+ * Adding and removing drivers is safe from any thread, so new drivers can be indexed while
+ * searches are running.
+ */
+public class DriverIndex {
+    private final Grid grid;
+    private final Map<Long, Set<Driver>> cells = new ConcurrentHashMap<>();
+    // The cell each indexed driver was filed under, so it can be removed after it moves.
+    private final Map<Driver, Long> driverCells = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public DriverIndex(Grid grid) {
+        this.grid = grid;
+    }
+
+    /**
+     * Indexes a driver at their current location, replacing any earlier entry.
+     */
+    public void add(Driver driver) {
+        long cell = grid.cellOf(driver.getCurrentLocation());
+        Long previous = driverCells.put(driver, cell);
+        if (previous != null) {
+            removeFromCell(driver, previous);
+        } else {
+            size.incrementAndGet();
+        }
+        cells.compute(cell, (key, inCell) -> {
+            Set<Driver> drivers = inCell != null ? inCell : ConcurrentHashMap.newKeySet();
+            drivers.add(driver);
+            return drivers;
+        });
+    }
+
+    public void remove(Driver driver) {
+        Long cell = driverCells.remove(driver);
+        if (cell != null) {
+            removeFromCell(driver, cell);
+            size.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Passes every indexed driver to an action. Drivers added or removed while this
+     * runs may or may not be seen.
+     */
+    public void forEach(Consumer<Driver> action) {
+        driverCells.keySet().forEach(action);
+    }
+
+    /**
+     * Finds up to {@code limit} indexed drivers, nearest first.
+     * @param location The point to search around.
+     * @param limit The most drivers to return.
+     * @return The nearest drivers, closest at the head.
+     */
+    public Deque<Driver> nearest(Location location, int limit) {
+        PriorityQueue<Driver> nearest = new PriorityQueue<>(limit + 1,
+                Comparator.comparingDouble((Driver d) -> d.getCurrentLocation().distanceTo(location)).reversed());
+        int cx = grid.indexOf(location.getX());
+        int cy = grid.indexOf(location.getY());
+
+        for (int ring = 0; ; ring++) {
+            int ringCells = (2 * ring + 1) * (2 * ring + 1);
+            if (ringCells > cells.size()) {
+                // The search area is now bigger than the set of occupied cells; just check them all.
+                for (Set<Driver> inCell : cells.values()) {
+                    collect(inCell, nearest, limit);
+                }
+                break;
+            }
+
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dy = -ring; dy <= ring; dy++) {
+                    if (Math.abs(dx) != ring && Math.abs(dy) != ring) continue;
+                    Set<Driver> inCell = cells.get(grid.cellKey(cx + dx, cy + dy));
+                    if (inCell != null) {
+                        collect(inCell, nearest, limit);
+                    }
+                }
+            }
+
+            // Every cell beyond this ring is at least ring * cell size away.
+            if (nearest.size() == limit
+                    && nearest.peek().getCurrentLocation().distanceTo(location) <= (double) ring * grid.getCellSize()) {
+                break;
+            }
+        }
+
+        Deque<Driver> ordered = new ArrayDeque<>(nearest.size());
+        while (!nearest.isEmpty()) {
+            ordered.addFirst(nearest.poll());
+        }
+        return ordered;
+    }
+
+    private void collect(Set<Driver> inCell, PriorityQueue<Driver> nearest, int limit) {
+        for (Driver driver : inCell) {
+            if (!driver.isAvailable() || nearest.contains(driver)) continue;
+            nearest.add(driver);
+            if (nearest.size() > limit) {
+                nearest.poll();
+            }
+        }
+    }
+
+    private void removeFromCell(Driver driver, long cell) {
+        // Done atomically per cell so an empty bucket is never dropped while another thread fills it.
+        cells.computeIfPresent(cell, (key, inCell) -> {
+            inCell.remove(driver);
+            return inCell.isEmpty() ? null : inCell;
+        });
+    }
+}
@@ -0,0 +1,56 @@
+package com.service;
+
+import com.model.Location;
+
+/**
+ * A square grid laid over the map, shared by everything that buckets locations into cells:
+ * the demand forecast, the driver index and the pooling route index. Using one instance
+ * keeps all three agreeing on which cell a location falls in.
+ * <p>
+ * A cell is identified by a single long holding its column in the high 32 bits and its
+ * row in the low 32 bits.
+ */
+public class Grid {
+    private final int cellSize;
+
+    /**
+     * @param cellSize The width and height of a cell, in distance units.
+     */
+    public Grid(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Returns the column of the cells containing an x coordinate, or the row for a y coordinate.
+     */
+    public int indexOf(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    /**
+     * Returns the key of the cell that contains a location.
+     */
+    public long cellOf(Location location) {
+        return cellKey(indexOf(location.getX()), indexOf(location.getY()));
+    }
+
+    /**
+     * Returns the key of the cell at a column and row.
+     */
+    public long cellKey(int column, int row) {
+        return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the center point of a cell.
+     */
+    public Location centerOf(long cell) {
+        int column = (int) (cell >> 32);
+        int row = (int) cell;
+        return new Location(column * cellSize + cellSize / 2, row * cellSize + cellSize / 2);
+    }
+}
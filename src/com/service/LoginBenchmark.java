@@ -0,0 +1,140 @@
+package com.service;
+
+import com.model.Passenger;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many logins per second a TaxiManager can verify, and how many session
+ * lookups per second it can answer once a passenger holds a token, so the cost of the
+ * password hashing and the benefit of the session cache can be checked on any machine.
+ * <p>
+ * Every thread logs in as its own passenger over and over for the given time, closing each
+ * session straight away, and then looks up a single open session for the same time.
+ * Logins turned away because the login pool is full count as rejected, not as completed.
+ * <p>
+ * Usage: {@code LoginBenchmark [--threads <n>] [--seconds <s>]}
+ */
+public class LoginBenchmark {
+    private static final String PASSWORD = "benchmark";
+    // Each thread's open session during the lookup phase.
+    private static final ThreadLocal<String> TOKENS = new ThreadLocal<>();
+
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        double seconds = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.out.println("Usage: LoginBenchmark [--threads <n>] [--seconds <s>]");
+                    return;
+            }
+        }
+
+        // One hash is enough: every passenger can share it, and hashing one per passenger would only slow the setup.
+        String hash = PasswordHasher.hash(PASSWORD);
+        List<Passenger> passengers = new ArrayList<>();
+        for (int i = 1; i <= threads; i++) {
+            passengers.add(new Passenger("P" + i, "bench" + i, hash));
+        }
+
+        PrintStream console = System.out;
+        // TaxiManager talks to the console on every call; keep that out of the measurements.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        TaxiManager manager = new TaxiManager(passengers, new ArrayList<>());
+        Result logins;
+        Result lookups;
+        try {
+            long durationNanos = (long) (seconds * 1_000_000_000L);
+            logins = run(threads, durationNanos, name -> {
+                String token = manager.login(name, PASSWORD);
+                manager.logout(token);
+                return token != null;
+            });
+            lookups = run(threads, durationNanos, name -> {
+                // The token is opened once per thread in the first call and reused after that.
+                String token = TOKENS.get();
+                if (token == null) {
+                    token = manager.login(name, PASSWORD);
+                    TOKENS.set(token);
+                }
+                return manager.getSessionPassenger(token) != null;
+            });
+        } finally {
+            manager.shutdown();
+            System.setOut(console);
+        }
+
+        console.printf("Threads: %d, %.1f s per phase%n", threads, seconds);
+        logins.print(console, "logins");
+        lookups.print(console, "session lookups");
+    }
+
+    private interface Operation {
+        boolean run(String passengerName);
+    }
+
+    /**
+     * Runs an operation in a loop on every thread, each as its own passenger, until the time is up.
+     */
+    private static Result run(int threads, long durationNanos, Operation operation) throws InterruptedException {
+        LongAdder completed = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 1; i <= threads; i++) {
+            String name = "bench" + i;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long deadline = System.nanoTime() + durationNanos;
+                while (System.nanoTime() < deadline) {
+                    if (operation.run(name)) {
+                        completed.increment();
+                    } else {
+                        rejected.increment();
+                    }
+                }
+            }, "bench-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new Result(completed.sum(), rejected.sum(), System.nanoTime() - begin);
+    }
+
+    private static class Result {
+        private final long completed;
+        private final long rejected;
+        private final long elapsedNanos;
+
+        Result(long completed, long rejected, long elapsedNanos) {
+            this.completed = completed;
+            this.rejected = rejected;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void print(PrintStream out, String what) {
+            double perSecond = completed * 1_000_000_000.0 / elapsedNanos;
+            out.printf("%-16s %12.1f/s  (%d completed, %d rejected)%n", what + ":", perSecond, completed, rejected);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hashes and verifies passwords with salted PBKDF2.
+ * <p>
+ * Stored values look like {@code pbkdf2$<iterations>$<salt>$<hash>}. Records saved
+ * before hashing was introduced are kept as {@code plain$<password>} until the next
+ * successful login or save replaces them with a real hash.
+ */
+public class PasswordHasher {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String HASH_PREFIX = "pbkdf2$";
+    private static final String LEGACY_PREFIX = "plain$";
+    private static final int ITERATIONS = 120000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHasher() {
+    }
+
+    /**
+     * Hashes a password with a fresh random salt.
+     * @param password The plaintext password.
+     * @return The encoded hash, ready to be stored.
+     */
+    public static String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, ITERATIONS);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return HASH_PREFIX + ITERATIONS + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    /**
+     * Wraps a plaintext password loaded from an old data file so it can be told apart from a hash.
+     */
+    public static String legacy(String plaintextPassword) {
+        return LEGACY_PREFIX + plaintextPassword;
+    }
+
+    /**
+     * Checks a password against a stored value, which may be a hash or a legacy plaintext record.
+     * @param password The password that was entered.
+     * @param stored The stored hash.
+     * @return true if the password matches.
+     */
+    public static boolean verify(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (stored.startsWith(LEGACY_PREFIX)) {
+            byte[] expected = stored.substring(LEGACY_PREFIX.length()).getBytes(StandardCharsets.UTF_8);
+            return MessageDigest.isEqual(expected, password.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!stored.startsWith(HASH_PREFIX)) {
+            return false;
+        }
+
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, salt, iterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if a stored value is plaintext or uses weaker settings than the current ones.
+     */
+    public static boolean needsRehash(String stored) {
+        if (stored == null || !stored.startsWith(HASH_PREFIX)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < ITERATIONS;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the plaintext from a legacy record, or null if the value is already hashed.
+     */
+    public static String legacyPassword(String stored) {
+        if (stored != null && stored.startsWith(LEGACY_PREFIX)) {
+            return stored.substring(LEGACY_PREFIX.length());
+        }
+        return null;
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Password hashing is not available: " + e.getMessage(), e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
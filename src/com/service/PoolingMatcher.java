@@ -0,0 +1,340 @@
+package com.service;
+
+import com.model.Driver;
+import com.model.Location;
+import com.model.Trip;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Matches shared-ride requests to drivers who are already carrying shared trips.
+ * <p>
+ * Every pooled driver has a route: an ordered list of pickup and dropoff stops. A new
+ * rider can join a route if their pickup and dropoff can be inserted without going over
+ * the seat count and without stretching any rider's trip past its detour budget.
+ * Routes are indexed on a grid by the cells their stops fall in, so a request only looks
+ * at routes passing near its pickup. Each candidate insertion is priced from the distances
+ * around the two insertion points, never by re-planning the whole route.
+ * <p>
+ * Not thread-safe; {@link TaxiManager} only calls it while holding its own lock.
+ */
+public class PoolingMatcher {
+    private final Grid grid;
+    private final double maxPickupDistance;
+    private final double detourFactor;
+    private final int maxCandidates;
+
+    private final Map<Trip, Route> routeByTrip = new HashMap<>();
+    private final Map<Long, Set<Route>> routesByCell = new HashMap<>();
+
+    /**
+     * @param grid The grid used to index routes.
+     * @param maxPickupDistance How far from a route's stops a new pickup may be.
+     * @param detourFactor How much longer than the direct distance a rider's trip may become, e.g. 0.5 for 50%.
+     * @param maxCandidates The most routes evaluated for a single request.
+     */
+    public PoolingMatcher(Grid grid, double maxPickupDistance, double detourFactor, int maxCandidates) {
+        this.grid = grid;
+        this.maxPickupDistance = maxPickupDistance;
+        this.detourFactor = detourFactor;
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Starts a route for a driver who has just accepted a shared trip.
+     */
+    public void openRoute(Driver driver, Trip trip) {
+        Route route = new Route(driver);
+        route.stops.add(new Stop(trip, trip.getOrigin(), true));
+        route.stops.add(new Stop(trip, trip.getDestination(), false));
+        routeByTrip.put(trip, route);
+        index(route);
+    }
+
+    /**
+     * Finds the cheapest way to add a trip to an existing route.
+     * @param trip The shared trip being requested.
+     * @param canTakeRiders Whether a driver may be given more riders; routes of other drivers are skipped.
+     * @return The best insertion, or null if no route can take the trip.
+     */
+    public Insertion findInsertion(Trip trip, Predicate<Driver> canTakeRiders) {
+        Insertion best = null;
+        int evaluated = 0;
+        for (Route route : nearbyRoutes(trip.getOrigin())) {
+            if (!canTakeRiders.test(route.driver)) {
+                continue;
+            }
+            if (evaluated++ >= maxCandidates) {
+                break;
+            }
+            Insertion candidate = bestInsertion(route, trip);
+            if (candidate != null && (best == null || candidate.addedDistance < best.addedDistance)) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds the trip's stops to the route chosen by {@link #findInsertion(Trip, Predicate)}.
+     */
+    public void apply(Insertion insertion) {
+        Route route = insertion.route;
+        Trip trip = insertion.trip;
+        unindex(route);
+        // Insert the dropoff first so the pickup index stays valid.
+        route.stops.add(insertion.dropoffGap, new Stop(trip, trip.getDestination(), false));
+        route.stops.add(insertion.pickupGap, new Stop(trip, trip.getOrigin(), true));
+        routeByTrip.put(trip, route);
+        index(route);
+    }
+
+    /**
+     * Removes a trip whose rider has just been dropped off. The driver has passed every
+     * pickup before that dropoff, so those riders are on board and their pickups are dropped too.
+     * @return true if the driver's route is now empty and the driver is free again.
+     */
+    public boolean completeTrip(Trip trip) {
+        Route route = routeByTrip.remove(trip);
+        if (route == null) {
+            return true;
+        }
+        unindex(route);
+        int passed = 0;
+        for (int k = 0; k < route.stops.size(); k++) {
+            Stop stop = route.stops.get(k);
+            if (stop.trip == trip && !stop.pickup) {
+                passed = k + 1;
+                break;
+            }
+        }
+        route.stops.subList(0, passed).removeIf(stop -> stop.pickup);
+        route.stops.removeIf(stop -> stop.trip == trip);
+        return reindex(route);
+    }
+
+    /**
+     * Removes a cancelled trip from its route. Other riders' stops are left as they are.
+     * @return true if the driver's route is now empty and the driver is free again.
+     */
+    public boolean removeTrip(Trip trip) {
+        Route route = routeByTrip.remove(trip);
+        if (route == null) {
+            return true;
+        }
+        unindex(route);
+        route.stops.removeIf(stop -> stop.trip == trip);
+        return reindex(route);
+    }
+
+    /**
+     * Indexes a route again after stops were removed, unless it is now empty.
+     * @return true if the route is empty.
+     */
+    private boolean reindex(Route route) {
+        if (route.stops.isEmpty()) {
+            return true;
+        }
+        index(route);
+        return false;
+    }
+
+    /**
+     * Tries every pair of gaps (pickup gap i, dropoff gap j >= i) in one route.
+     * Gap k is the leg that ends at stop k; gap n is after the last stop.
+     * Per-gap distances, loads and slack are computed once, so each pair is priced in constant time.
+     */
+    private Insertion bestInsertion(Route route, Trip trip) {
+        List<Stop> stops = route.stops;
+        int n = stops.size();
+        Location pickup = trip.getOrigin();
+        Location dropoff = trip.getDestination();
+        double direct = pickup.distanceTo(dropoff);
+        double newRiderBudget = direct * (1 + detourFactor);
+
+        // Points along the route: the driver's position followed by every stop.
+        Location[] points = new Location[n + 1];
+        points[0] = route.driver.getCurrentLocation();
+        for (int k = 0; k < n; k++) {
+            points[k + 1] = stops.get(k).location;
+        }
+
+        // cumulative[k] is the route distance from the driver to point k.
+        double[] cumulative = new double[n + 1];
+        for (int k = 1; k <= n; k++) {
+            cumulative[k] = cumulative[k - 1] + points[k - 1].distanceTo(points[k]);
+        }
+
+        // load[g] is how many riders are in the car on gap g; slack[g] is the extra distance
+        // gap g can absorb before some rider riding through it goes over their detour budget.
+        int[] load = new int[n + 1];
+        double[] slack = new double[n + 1];
+        Arrays.fill(slack, Double.POSITIVE_INFINITY);
+        Map<Trip, Integer> pickupIndex = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            Stop stop = stops.get(k);
+            if (stop.pickup) {
+                pickupIndex.put(stop.trip, k);
+                continue;
+            }
+            // Riders whose pickup is no longer on the route are already on board.
+            int from = pickupIndex.getOrDefault(stop.trip, -1);
+            double ride = cumulative[k + 1] - cumulative[from + 1];
+            double budget = stop.trip.getOrigin().distanceTo(stop.trip.getDestination()) * (1 + detourFactor);
+            double tripSlack = Math.max(0, budget - ride);
+            for (int g = from + 1; g <= k; g++) {
+                load[g]++;
+                slack[g] = Math.min(slack[g], tripSlack);
+            }
+        }
+
+        // The route may not grow by more than the new rider's own budget, so pooling never
+        // costs the fleet more than serving the rider with a separate car would.
+        Insertion best = null;
+        int seats = route.driver.getSeats();
+        for (int i = 0; i <= n; i++) {
+            if (load[i] >= seats) continue;
+            Location before = points[i];
+            Location after = i < n ? points[i + 1] : null;
+            double leg = after == null ? 0 : before.distanceTo(after);
+
+            // Pickup and dropoff inserted back to back in the same gap.
+            double sameGap = before.distanceTo(pickup) + direct
+                    + (after == null ? 0 : dropoff.distanceTo(after)) - leg;
+            if (sameGap <= slack[i] && sameGap <= newRiderBudget) {
+                best = cheaper(best, route, trip, i, i, sameGap);
+            }
+
+            double addPickup = before.distanceTo(pickup) + (after == null ? 0 : pickup.distanceTo(after)) - leg;
+            if (after == null || addPickup > slack[i]) continue;
+
+            int maxLoad = load[i];
+            double minSlack = slack[i];
+            for (int j = i + 1; j <= n; j++) {
+                maxLoad = Math.max(maxLoad, load[j]);
+                minSlack = Math.min(minSlack, slack[j]);
+                if (maxLoad >= seats) break;
+
+                Location dropBefore = points[j];
+                Location dropAfter = j < n ? points[j + 1] : null;
+                double dropLeg = dropAfter == null ? 0 : dropBefore.distanceTo(dropAfter);
+                double addDropoff = dropBefore.distanceTo(dropoff)
+                        + (dropAfter == null ? 0 : dropoff.distanceTo(dropAfter)) - dropLeg;
+                double added = addPickup + addDropoff;
+                // A rider on board across both gaps pays both detours; checking the sum is a safe bound.
+                if (added > minSlack || added > newRiderBudget) continue;
+
+                double newRide = pickup.distanceTo(after) + (cumulative[j] - cumulative[i + 1]) + dropBefore.distanceTo(dropoff);
+                if (newRide > newRiderBudget) continue;
+
+                best = cheaper(best, route, trip, i, j, added);
+            }
+        }
+        return best;
+    }
+
+    private Insertion cheaper(Insertion best, Route route, Trip trip, int pickupGap, int dropoffGap, double added) {
+        if (best != null && best.addedDistance <= added) {
+            return best;
+        }
+        return new Insertion(route, trip, pickupGap, dropoffGap, added);
+    }
+
+    /**
+     * Collects the routes with a stop within the pickup distance, walking outwards ring by ring
+     * so that the candidate budget in {@link #findInsertion(Trip, Predicate)} goes to the closest routes.
+     */
+    private Set<Route> nearbyRoutes(Location location) {
+        Set<Route> nearby = new LinkedHashSet<>();
+        int radius = (int) Math.ceil(maxPickupDistance / grid.getCellSize());
+        int cx = grid.indexOf(location.getX());
+        int cy = grid.indexOf(location.getY());
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                for (int dy = -ring; dy <= ring; dy++) {
+                    if (Math.abs(dx) != ring && Math.abs(dy) != ring) continue;
+                    Set<Route> inCell = routesByCell.get(grid.cellKey(cx + dx, cy + dy));
+                    if (inCell != null) {
+                        nearby.addAll(inCell);
+                    }
+                }
+            }
+        }
+        return nearby;
+    }
+
+    private void index(Route route) {
+        route.cells.clear();
+        route.cells.add(grid.cellOf(route.driver.getCurrentLocation()));
+        for (Stop stop : route.stops) {
+            route.cells.add(grid.cellOf(stop.location));
+        }
+        for (long cell : route.cells) {
+            routesByCell.computeIfAbsent(cell, key -> new HashSet<>()).add(route);
+        }
+    }
+
+    private void unindex(Route route) {
+        for (long cell : route.cells) {
+            Set<Route> inCell = routesByCell.get(cell);
+            if (inCell != null) {
+                inCell.remove(route);
+                if (inCell.isEmpty()) {
+                    routesByCell.remove(cell);
+                }
+            }
+        }
+        route.cells.clear();
+    }
+
+    /**
+     * A proposed change to a route: where to insert a new trip's pickup and dropoff.
+     */
+    public static class Insertion {
+        private final Route route;
+        private final Trip trip;
+        private final int pickupGap;
+        private final int dropoffGap;
+        private final double addedDistance;
+
+        Insertion(Route route, Trip trip, int pickupGap, int dropoffGap, double addedDistance) {
+            this.route = route;
+            this.trip = trip;
+            this.pickupGap = pickupGap;
+            this.dropoffGap = dropoffGap;
+            this.addedDistance = addedDistance;
+        }
+
+        public Driver getDriver() { return route.driver; }
+        public double getAddedDistance() { return addedDistance; }
+    }
+
+    private static class Route {
+        private final Driver driver;
+        private final List<Stop> stops = new ArrayList<>();
+        private final Set<Long> cells = new HashSet<>();
+
+        Route(Driver driver) {
+            this.driver = driver;
+        }
+    }
+
+    private static class Stop {
+        private final Trip trip;
+        private final Location location;
+        private final boolean pickup;
+
+        Stop(Trip trip, Location location, boolean pickup) {
+            this.trip = trip;
+            this.location = location;
+            this.pickup = pickup;
+        }
+    }
+}
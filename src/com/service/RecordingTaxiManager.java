@@ -0,0 +1,158 @@
+package com.service;
+
+import com.model.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TaxiManager that writes every public call, with its arguments, result and timing,
+ * to a {@link TrafficRecorder}. Apart from the recording it behaves exactly like TaxiManager.
+ */
+public class RecordingTaxiManager extends TaxiManager {
+    private final TrafficRecorder recorder;
+    // Trips are referred to in the recording by a number assigned when they are requested.
+    // Entries are dropped once a trip is ended, cancelled or expires.
+    private final Map<Trip, Integer> tripRefs = new ConcurrentHashMap<>();
+    private final AtomicInteger tripCounter = new AtomicInteger();
+
+    public RecordingTaxiManager(TrafficRecorder recorder) {
+        super();
+        this.recorder = recorder;
+        recorder.recordSnapshot(listPassengers(), listDrivers());
+    }
+
+    @Override
+    public Passenger registerPassenger(String name, String password) {
+        long start = System.nanoTime();
+        Passenger passenger = super.registerPassenger(name, password);
+        long latency = System.nanoTime() - start;
+        recorder.recordRegister(start, latency, name, password, passenger == null ? null : passenger.getId());
+        return passenger;
+    }
+
+    @Override
+    public String login(String name, String password) {
+        long start = System.nanoTime();
+        String token = super.login(name, password);
+        long latency = System.nanoTime() - start;
+        Passenger passenger = getSessionPassenger(token);
+        recorder.recordLogin(start, latency, name, password, passenger == null ? null : passenger.getId());
+        return token;
+    }
+
+    @Override
+    public Passenger loginPassenger(String name, String password) {
+        long start = System.nanoTime();
+        Passenger passenger = super.loginPassenger(name, password);
+        long latency = System.nanoTime() - start;
+        recorder.recordLogin(start, latency, name, password, passenger == null ? null : passenger.getId());
+        return passenger;
+    }
+
+    @Override
+    public Trip requestTrip(Passenger passenger, Location origin, Location destination, boolean shared) {
+        long start = System.nanoTime();
+        Trip trip = super.requestTrip(passenger, origin, destination, shared);
+        long latency = System.nanoTime() - start;
+        int ref = 0;
+        if (trip != null) {
+            ref = tripCounter.incrementAndGet();
+            tripRefs.put(trip, ref);
+        }
+        recorder.recordRequest(start, latency, passenger.getId(), origin, destination, shared, ref);
+        return trip;
+    }
+
+    @Override
+    public boolean acceptOffer(Driver driver, Trip trip) {
+        long start = System.nanoTime();
+        boolean accepted = super.acceptOffer(driver, trip);
+        long latency = System.nanoTime() - start;
+        recorder.recordAccept(start, latency, driver.getId(), tripRef(trip), accepted);
+        return accepted;
+    }
+
+    @Override
+    public boolean declineOffer(Driver driver, Trip trip) {
+        long start = System.nanoTime();
+        boolean declined = super.declineOffer(driver, trip);
+        long latency = System.nanoTime() - start;
+        recorder.recordDecline(start, latency, driver.getId(), tripRef(trip), declined);
+        return declined;
+    }
+
+    @Override
+    public boolean endTrip(Trip trip) {
+        long start = System.nanoTime();
+        boolean ended = super.endTrip(trip);
+        long latency = System.nanoTime() - start;
+        recorder.recordEnd(start, latency, tripRef(trip), ended);
+        forgetTrip(trip);
+        return ended;
+    }
+
+    @Override
+    public boolean cancelTrip(Trip trip) {
+        long start = System.nanoTime();
+        boolean cancelled = super.cancelTrip(trip);
+        long latency = System.nanoTime() - start;
+        recorder.recordCancel(start, latency, tripRef(trip), cancelled);
+        forgetTrip(trip);
+        return cancelled;
+    }
+
+    @Override
+    protected void offerTimedOut(Driver driver, Trip trip) {
+        super.offerTimedOut(driver, trip);
+        // Runs before the trip is passed on, so the trip still has its reference even if this was the last candidate.
+        recorder.recordOfferExpired(System.nanoTime(), driver.getId(), tripRef(trip));
+    }
+
+    @Override
+    protected void tripExpired(Trip trip) {
+        super.tripExpired(trip);
+        forgetTrip(trip);
+    }
+
+    @Override
+    public boolean addDriver(Driver driver) {
+        long start = System.nanoTime();
+        boolean added = super.addDriver(driver);
+        long latency = System.nanoTime() - start;
+        // The TaxiManager constructor adds the stored drivers before the recorder is set; those are not traffic.
+        if (recorder != null) {
+            recorder.recordAddDriver(start, latency, driver.getId(), driver.getName(), driver.getCarDetails(),
+                    driver.getCurrentLocation(), driver.getSeats(), added);
+        }
+        return added;
+    }
+
+    @Override
+    public boolean removeDriver(String driverId) {
+        long start = System.nanoTime();
+        boolean removed = super.removeDriver(driverId);
+        long latency = System.nanoTime() - start;
+        recorder.recordRemoveDriver(start, latency, driverId, removed);
+        return removed;
+    }
+
+    @Override
+    public void saveData() {
+        super.saveData();
+        recorder.flush();
+    }
+
+    private void forgetTrip(Trip trip) {
+        if (trip != null) {
+            tripRefs.remove(trip);
+        }
+    }
+
+    private int tripRef(Trip trip) {
+        if (trip == null) {
+            return 0;
+        }
+        return tripRefs.getOrDefault(trip, 0);
+    }
+}
@@ -0,0 +1,327 @@
+package com.service;
+
+import com.model.Driver;
+import com.model.Location;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Periodically suggests where idle drivers should wait, based on forecast demand.
+ * <p>
+ * Each run spreads the idle drivers over the busiest grid cells in proportion to
+ * their forecast request rate, then solves the transport problem of moving drivers
+ * from cells with too many of them to cells with too few, at minimum total distance.
+ * All of this runs on a single low-priority thread so it never competes with dispatch.
+ * <p>
+ * Part of the fleet is always left where it is, so areas with no recent demand keep
+ * some cover instead of the whole fleet collapsing onto a few hot spots. Each run also
+ * moves only a fraction of the surplus, cheapest moves first, and no driver is sent
+ * further than a fixed distance, so the fleet drifts towards demand over several runs.
+ */
+public class RepositioningEngine {
+    // Only this many of the busiest (and most oversupplied) cells are considered per run.
+    private static final int MAX_CELLS = 64;
+    // Cells whose forecast rate has decayed below this are ignored.
+    private static final double MIN_CELL_RATE = 0.05;
+    // The share of idle drivers targeted at the cells they are already in, regardless of demand.
+    private static final double BASELINE_SHARE = 0.3;
+    // The most of the total surplus moved in a single run.
+    private static final double MAX_MOVE_FRACTION = 0.5;
+
+    private final DemandForecaster forecaster;
+    private final Supplier<Map<Driver, Location>> idleDrivers;
+    private final Consumer<Map<Driver, Location>> moves;
+    private final double maxMoveDistance;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param forecaster The source of per-cell demand estimates.
+     * @param idleDrivers Returns a snapshot of available drivers and their locations.
+     * @param moves Receives the suggested target location for each driver to move.
+     * @param maxMoveDistance The furthest a driver is sent in one run.
+     */
+    public RepositioningEngine(DemandForecaster forecaster,
+                               Supplier<Map<Driver, Location>> idleDrivers,
+                               Consumer<Map<Driver, Location>> moves,
+                               double maxMoveDistance) {
+        this.forecaster = forecaster;
+        this.idleDrivers = idleDrivers;
+        this.moves = moves;
+        this.maxMoveDistance = maxMoveDistance;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "repositioning");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts computing suggestions at a fixed interval.
+     */
+    public void start(long period, TimeUnit unit) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                Map<Driver, Location> suggestions = computeSuggestions();
+                if (!suggestions.isEmpty()) {
+                    moves.accept(suggestions);
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error computing driver repositioning: " + e.getMessage());
+            }
+        }, period, period, unit);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Computes one round of repositioning suggestions.
+     * @return A map from driver to the location they should move to.
+     */
+    public Map<Driver, Location> computeSuggestions() {
+        Map<Driver, Location> drivers = idleDrivers.get();
+        Map<Long, Double> demand = forecaster.snapshot(MIN_CELL_RATE);
+        if (drivers.isEmpty() || demand.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        // Group idle drivers by the cell they are in.
+        Map<Long, List<Driver>> supply = new HashMap<>();
+        for (Map.Entry<Driver, Location> entry : drivers.entrySet()) {
+            supply.computeIfAbsent(forecaster.cellOf(entry.getValue()), key -> new ArrayList<>()).add(entry.getKey());
+        }
+
+        Map<Long, Integer> target = distributeDrivers(demand, supply, drivers.size());
+
+        // Net imbalance per cell: positive cells have drivers to spare, negative cells need them.
+        Map<Long, Integer> surplus = new HashMap<>();
+        Map<Long, Integer> deficit = new HashMap<>();
+        for (Map.Entry<Long, List<Driver>> entry : supply.entrySet()) {
+            int net = entry.getValue().size() - target.getOrDefault(entry.getKey(), 0);
+            if (net > 0) surplus.put(entry.getKey(), net);
+        }
+        for (Map.Entry<Long, Integer> entry : target.entrySet()) {
+            List<Driver> present = supply.get(entry.getKey());
+            int net = entry.getValue() - (present == null ? 0 : present.size());
+            if (net > 0) deficit.put(entry.getKey(), net);
+        }
+        if (surplus.isEmpty() || deficit.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        long[] from = largestCells(surplus);
+        long[] to = largestCells(deficit);
+        int[][] flow = solveTransport(from, to, surplus, deficit);
+
+        // Carry out the cheapest moves first, up to this run's share of the surplus.
+        int totalSurplus = 0;
+        for (int amount : surplus.values()) totalSurplus += amount;
+        int movesLeft = (int) Math.ceil(totalSurplus * MAX_MOVE_FRACTION);
+        List<int[]> routes = new ArrayList<>();
+        for (int i = 0; i < from.length; i++) {
+            for (int j = 0; j < to.length; j++) {
+                if (flow[i][j] > 0) routes.add(new int[] {i, j});
+            }
+        }
+        routes.sort(Comparator.comparingDouble(
+                (int[] r) -> forecaster.centerOf(from[r[0]]).distanceTo(forecaster.centerOf(to[r[1]]))));
+
+        Map<Driver, Location> suggestions = new HashMap<>();
+        Map<Long, Integer> taken = new HashMap<>();
+        for (int[] route : routes) {
+            List<Driver> candidates = supply.get(from[route[0]]);
+            Location center = forecaster.centerOf(to[route[1]]);
+            int next = taken.getOrDefault(from[route[0]], 0);
+            for (int k = 0; k < flow[route[0]][route[1]] && next < candidates.size() && movesLeft > 0; k++) {
+                Driver driver = candidates.get(next++);
+                suggestions.put(driver, stepTowards(drivers.get(driver), center));
+                movesLeft--;
+            }
+            taken.put(from[route[0]], next);
+        }
+        return suggestions;
+    }
+
+    /**
+     * Returns the point on the way from one location to another that is at most
+     * the maximum move distance from the start.
+     */
+    private Location stepTowards(Location from, Location to) {
+        double distance = from.distanceTo(to);
+        if (distance <= maxMoveDistance) {
+            return to;
+        }
+        double fraction = maxMoveDistance / distance;
+        return new Location((int) Math.round(from.getX() + (to.getX() - from.getX()) * fraction),
+                (int) Math.round(from.getY() + (to.getY() - from.getY()) * fraction));
+    }
+
+    /**
+     * Splits a number of drivers over the cells, using largest-remainder rounding so the
+     * shares add up exactly. A baseline share stays with the cells drivers are already in;
+     * the rest goes to the busiest cells in proportion to their rates.
+     */
+    private Map<Long, Integer> distributeDrivers(Map<Long, Double> demand, Map<Long, List<Driver>> supply,
+                                                 int driverCount) {
+        List<Map.Entry<Long, Double>> busiest = new ArrayList<>(demand.entrySet());
+        busiest.sort(Map.Entry.<Long, Double>comparingByValue().reversed());
+        if (busiest.size() > MAX_CELLS) {
+            busiest = busiest.subList(0, MAX_CELLS);
+        }
+
+        double totalRate = 0;
+        for (Map.Entry<Long, Double> entry : busiest) {
+            totalRate += entry.getValue();
+        }
+
+        Map<Long, Double> shares = new HashMap<>();
+        for (Map.Entry<Long, Double> entry : busiest) {
+            shares.merge(entry.getKey(), driverCount * (1 - BASELINE_SHARE) * entry.getValue() / totalRate, Double::sum);
+        }
+        for (Map.Entry<Long, List<Driver>> entry : supply.entrySet()) {
+            shares.merge(entry.getKey(), BASELINE_SHARE * entry.getValue().size(), Double::sum);
+        }
+
+        List<Long> cells = new ArrayList<>(shares.keySet());
+        Map<Long, Integer> target = new HashMap<>();
+        double[] remainders = new double[cells.size()];
+        int assigned = 0;
+        for (int i = 0; i < cells.size(); i++) {
+            double share = shares.get(cells.get(i));
+            int whole = (int) share;
+            target.put(cells.get(i), whole);
+            remainders[i] = share - whole;
+            assigned += whole;
+        }
+
+        Integer[] order = new Integer[cells.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> remainders[i]).reversed());
+        for (int i = 0; assigned < driverCount && i < order.length; i++, assigned++) {
+            target.merge(cells.get(order[i]), 1, Integer::sum);
+        }
+        return target;
+    }
+
+    private long[] largestCells(Map<Long, Integer> amounts) {
+        return amounts.entrySet().stream()
+                .sorted(Map.Entry.<Long, Integer>comparingByValue().reversed())
+                .limit(MAX_CELLS)
+                .mapToLong(Map.Entry::getKey)
+                .toArray();
+    }
+
+    /**
+     * Solves the transport problem between surplus and deficit cells with successive
+     * shortest paths. Every augmentation empties a source or fills a sink, so there are
+     * at most {@code from.length + to.length} rounds of Bellman-Ford over the residual graph.
+     * @return flow[i][j], the number of drivers to move from cell from[i] to cell to[j].
+     */
+    private int[][] solveTransport(long[] from, long[] to, Map<Long, Integer> surplus, Map<Long, Integer> deficit) {
+        int s = from.length;
+        int d = to.length;
+        double[][] cost = new double[s][d];
+        for (int i = 0; i < s; i++) {
+            Location a = forecaster.centerOf(from[i]);
+            for (int j = 0; j < d; j++) {
+                cost[i][j] = a.distanceTo(forecaster.centerOf(to[j]));
+            }
+        }
+
+        int[] supplyLeft = new int[s];
+        int[] demandLeft = new int[d];
+        for (int i = 0; i < s; i++) supplyLeft[i] = surplus.get(from[i]);
+        for (int j = 0; j < d; j++) demandLeft[j] = deficit.get(to[j]);
+        int[][] flow = new int[s][d];
+
+        // Nodes 0..s-1 are sources, s..s+d-1 are sinks.
+        double[] dist = new double[s + d];
+        int[] parent = new int[s + d];
+        while (true) {
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            Arrays.fill(parent, -1);
+            for (int i = 0; i < s; i++) {
+                if (supplyLeft[i] > 0) dist[i] = 0;
+            }
+
+            boolean changed = true;
+            for (int round = 0; changed && round < s + d; round++) {
+                changed = false;
+                for (int i = 0; i < s; i++) {
+                    if (dist[i] == Double.POSITIVE_INFINITY) continue;
+                    for (int j = 0; j < d; j++) {
+                        double candidate = dist[i] + cost[i][j];
+                        if (candidate < dist[s + j] - 1e-9) {
+                            dist[s + j] = candidate;
+                            parent[s + j] = i;
+                            changed = true;
+                        }
+                    }
+                }
+                // Residual back edges let a later path undo part of an earlier assignment.
+                for (int j = 0; j < d; j++) {
+                    if (dist[s + j] == Double.POSITIVE_INFINITY) continue;
+                    for (int i = 0; i < s; i++) {
+                        if (flow[i][j] == 0) continue;
+                        double candidate = dist[s + j] - cost[i][j];
+                        if (candidate < dist[i] - 1e-9) {
+                            dist[i] = candidate;
+                            parent[i] = s + j;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+
+            int sink = -1;
+            for (int j = 0; j < d; j++) {
+                if (demandLeft[j] > 0 && dist[s + j] != Double.POSITIVE_INFINITY
+                        && (sink == -1 || dist[s + j] < dist[s + sink])) {
+                    sink = j;
+                }
+            }
+            if (sink == -1) {
+                return flow;
+            }
+
+            // Walk back to the source to find how much the path can carry.
+            int amount = demandLeft[sink];
+            int node = s + sink;
+            while (true) {
+                int prev = parent[node];
+                if (prev == -1) {
+                    amount = Math.min(amount, supplyLeft[node]);
+                    break;
+                }
+                if (node < s) {
+                    amount = Math.min(amount, flow[node][prev - s]);
+                }
+                node = prev;
+            }
+
+            node = s + sink;
+            while (parent[node] != -1) {
+                int prev = parent[node];
+                if (node >= s) {
+                    flow[prev][node - s] += amount;
+                } else {
+                    flow[node][prev - s] -= amount;
+                }
+                node = prev;
+            }
+            supplyLeft[node] -= amount;
+            demandLeft[sink] -= amount;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.service;
+
+import com.model.Passenger;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, short-lived cache of session tokens issued at login.
+ * Once a passenger has logged in, their token can be checked without hashing
+ * the password again. When the cache is full the least recently used session
+ * is dropped, and sessions expire after a fixed time to live.
+ */
+public class SessionCache {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int maxSessions;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Session> sessions;
+
+    /**
+     * @param maxSessions The most sessions kept at once.
+     * @param ttlMillis How long a session stays valid after it was last used.
+     */
+    public SessionCache(int maxSessions, long ttlMillis) {
+        this.maxSessions = maxSessions;
+        this.ttlMillis = ttlMillis;
+        this.sessions = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > SessionCache.this.maxSessions;
+            }
+        };
+    }
+
+    /**
+     * Issues a new session token for a passenger who has just been verified.
+     */
+    public synchronized String open(Passenger passenger) {
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(passenger, System.currentTimeMillis() + ttlMillis));
+        return token;
+    }
+
+    /**
+     * Looks up the passenger for a token and extends the session.
+     * @return The passenger, or null if the token is unknown or has expired.
+     */
+    public synchronized Passenger get(String token) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessions.get(token);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (session.expiresAt < now) {
+            sessions.remove(token);
+            return null;
+        }
+        session.expiresAt = now + ttlMillis;
+        return session.passenger;
+    }
+
+    public synchronized void close(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    private static class Session {
+        private final Passenger passenger;
+        private long expiresAt;
+
+        Session(Passenger passenger, long expiresAt) {
+            this.passenger = passenger;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
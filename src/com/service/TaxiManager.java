@@ -1,24 +1,165 @@
 package com.service;
 
 import com.model.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 
 /**
  * Manages all core operations of the taxi service.
  */
 public class TaxiManager {
     private Map<String, Passenger> passengers;
+    // Lower-cased names of registered passengers, plus names reserved by registrations still in progress.
+    private Set<String> passengerNames = ConcurrentHashMap.newKeySet();
     private Map<String, Driver> drivers;
     private List<Trip> trips = new ArrayList<>();
     private DataManager dataManager = new DataManager();
     private AtomicInteger passengerCounter;
 
+    // How long a driver has to accept an offer before it moves to the next candidate.
+    private static final long OFFER_TIMEOUT_MS = 15000;
+    // How many of the nearest drivers an offer may cascade through.
+    private static final int MAX_OFFER_CANDIDATES = 5;
+    // OFFER_TIMEOUT_MS adjusted for the time scale; 0 when offers never time out.
+    private long offerTimeoutMs;
+
+    private TimerWheel offerTimer = new TimerWheel(100, TimeUnit.MILLISECONDS, "offer-timer");
+    // Expired offers are handed to their own thread, so the timer thread never waits for the dispatch lock.
+    private ConcurrentLinkedQueue<Runnable> expiredOffers = new ConcurrentLinkedQueue<>();
+    private AtomicBoolean expiryDrainScheduled = new AtomicBoolean();
+    private ExecutorService offerExpiryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offer-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Open offers, keyed by the trip they were made for.
+    private Map<Trip, PendingOffer> pendingOffers = new HashMap<>();
+
+    // Demand is tracked on a grid of 10x10 cells, with requests losing half their weight every 15 minutes.
+    private static final int DEMAND_CELL_SIZE = 10;
+    // The one grid shared by the demand forecast, the driver index and the pooling route index.
+    private Grid grid = new Grid(DEMAND_CELL_SIZE);
+    private static final long DEMAND_HALF_LIFE_MS = 15 * 60 * 1000;
+    private static final long REPOSITION_PERIOD_SECONDS = 30;
+    // How far a driver may be sent in one repositioning round, roughly what they can drive in that time.
+    private static final double REPOSITION_MAX_DISTANCE = 20;
+
+    private DemandForecaster demandForecaster;
+    private RepositioningEngine repositioningEngine;
+
+    // Password hashing is deliberately slow, so logins run on a small bounded pool of their own.
+    private static final int LOGIN_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int LOGIN_QUEUE_CAPACITY = 64;
+    private static final long LOGIN_TIMEOUT_SECONDS = 5;
+    private static final int MAX_SESSIONS = 10000;
+    private static final long SESSION_TTL_MS = 30 * 60 * 1000;
+    // Checked against when a login names an unknown passenger, so a miss costs as much as a wrong password.
+    private static final String UNKNOWN_PASSENGER_HASH = PasswordHasher.hash("unknown-passenger");
+
+    // Shared rides may add up to 50% to each rider's direct distance.
+    private static final double POOL_DETOUR_FACTOR = 0.5;
+    private static final double POOL_MAX_PICKUP_DISTANCE = 20.0;
+    private static final int POOL_MAX_CANDIDATES = 32;
+
+    private PoolingMatcher poolingMatcher = new PoolingMatcher(grid, POOL_MAX_PICKUP_DISTANCE,
+            POOL_DETOUR_FACTOR, POOL_MAX_CANDIDATES);
+
+    // Available drivers, indexed by location. A driver is in the index exactly while they can be offered trips.
+    private DriverIndex driverIndex = new DriverIndex(grid);
+    // Drivers removed while busy; they leave the fleet as soon as they become free.
+    private Set<Driver> retiringDrivers = new HashSet<>();
+
+    // Each passenger may make 5 requests back to back, then one every 5 seconds.
+    private static final int REQUEST_BURST = 5;
+    private static final double REQUESTS_PER_SECOND = 0.2;
+    // Dispatch admits up to 256 requests at once, or only 16 while average latency is over 50 ms.
+    private static final int MAX_DISPATCH_IN_FLIGHT = 256;
+    private static final int MAX_DISPATCH_IN_FLIGHT_WHEN_SLOW = 16;
+    private static final long DISPATCH_LATENCY_THRESHOLD_MS = 50;
+
+    private AdmissionController admission;
+
+    private ThreadPoolExecutor loginExecutor;
+    private SessionCache sessions = new SessionCache(MAX_SESSIONS, SESSION_TTL_MS);
+
     public TaxiManager() {
-        this.passengers = dataManager.loadPassengers();
-        this.drivers = dataManager.loadDrivers();
+        loadState(dataManager.loadPassengers().values(), dataManager.loadDrivers().values());
+
+        if (this.drivers.isEmpty()) {
+            System.out.println("No drivers file found. Initializing with default drivers.");
+            addDriver(new Driver("D1", "Ali", "Peugeot 405 - White", new Location(3, 5)));
+            addDriver(new Driver("D2", "Reza", "Pride - Black", new Location(10, 8)));
+            addDriver(new Driver("D3", "Maryam", "Tiba 2 - Red", new Location(1, 1)));
+        }
+
+        startServices(1.0, System::nanoTime);
+    }
+
+    /**
+     * Creates a manager that starts from the given passengers and drivers instead of the
+     * data files. Used to replay recorded traffic against the state it was recorded from.
+     * @param initialPassengers The registered passengers.
+     * @param initialDrivers The fleet.
+     */
+    public TaxiManager(Collection<Passenger> initialPassengers, Collection<Driver> initialDrivers) {
+        this(initialPassengers, initialDrivers, 1.0, System::nanoTime, true);
+    }
+
+    /**
+     * Creates a manager that starts from the given passengers and drivers and does not run
+     * on real time. Used to replay recorded traffic faster than it was recorded.
+     * @param initialPassengers The registered passengers.
+     * @param initialDrivers The fleet.
+     * @param timeScale How many times faster than real time offer timeouts, demand decay and
+     *                  repositioning run; infinity switches them off.
+     * @param requestClock The time in nanoseconds that passengers' request rate limits are measured against.
+     * @param offerTimeouts Whether offers time out on their own. When false, an offer only expires
+     *                      through {@link #expireOffer(Driver, Trip)}.
+     */
+    public TaxiManager(Collection<Passenger> initialPassengers, Collection<Driver> initialDrivers, double timeScale,
+                       LongSupplier requestClock, boolean offerTimeouts) {
+        loadState(initialPassengers, initialDrivers);
+        startServices(timeScale, requestClock);
+        if (!offerTimeouts) {
+            this.offerTimeoutMs = 0;
+        }
+    }
+
+    private void loadState(Collection<Passenger> initialPassengers, Collection<Driver> initialDrivers) {
+        // Logins read this map from the login pool while registrations write to it.
+        this.passengers = new ConcurrentHashMap<>();
+        for (Passenger passenger : initialPassengers) {
+            this.passengers.put(passenger.getId(), passenger);
+            this.passengerNames.add(passenger.getName().toLowerCase(Locale.ROOT));
+        }
+        // Drivers can be added from other threads while dispatch is running.
+        this.drivers = new ConcurrentHashMap<>();
+        for (Driver driver : initialDrivers) {
+            addDriver(driver);
+        }
 
         // Initialize passenger counter based on loaded data
         int maxId = 0;
@@ -33,49 +174,357 @@ public class TaxiManager {
             }
         }
         this.passengerCounter = new AtomicInteger(maxId);
+    }
 
+    private void startServices(double timeScale, LongSupplier requestClock) {
+        boolean timed = !Double.isInfinite(timeScale);
+        this.offerTimeoutMs = timed ? Math.max(1, Math.round(OFFER_TIMEOUT_MS / timeScale)) : 0;
+        this.admission = new AdmissionController(REQUEST_BURST, REQUESTS_PER_SECOND, MAX_DISPATCH_IN_FLIGHT,
+                MAX_DISPATCH_IN_FLIGHT_WHEN_SLOW, DISPATCH_LATENCY_THRESHOLD_MS, requestClock);
+        this.demandForecaster = new DemandForecaster(grid,
+                timed ? Math.max(1, Math.round(DEMAND_HALF_LIFE_MS / timeScale)) : DEMAND_HALF_LIFE_MS);
 
-        if (this.drivers.isEmpty()) {
-            System.out.println("No drivers file found. Initializing with default drivers.");
-            drivers.put("D1", new Driver("D1", "Ali", "Peugeot 405 - White", new Location(3, 5)));
-            drivers.put("D2", new Driver("D2", "Reza", "Pride - Black", new Location(10, 8)));
-            drivers.put("D3", new Driver("D3", "Maryam", "Tiba 2 - Red", new Location(1, 1)));
+        this.repositioningEngine = new RepositioningEngine(demandForecaster, this::snapshotIdleDrivers,
+                this::applyRepositioning, REPOSITION_MAX_DISTANCE);
+        if (timed) {
+            this.repositioningEngine.start(Math.max(1, Math.round(REPOSITION_PERIOD_SECONDS * 1000 / timeScale)),
+                    TimeUnit.MILLISECONDS);
         }
+
+        AtomicInteger loginThreadCount = new AtomicInteger();
+        this.loginExecutor = new ThreadPoolExecutor(LOGIN_THREADS, LOGIN_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LOGIN_QUEUE_CAPACITY), runnable -> {
+                    Thread thread = new Thread(runnable, "login-" + loginThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Stops the manager's background threads: the offer timer, offer expiry, repositioning
+     * and the login pool. Open offers no longer time out afterwards.
+     */
+    public void shutdown() {
+        offerTimer.stop();
+        offerExpiryExecutor.shutdownNow();
+        repositioningEngine.stop();
+        loginExecutor.shutdownNow();
     }
 
     public void saveData() {
-        dataManager.saveData(passengers, drivers);
+        hashLegacyPasswords();
+        synchronized (this) {
+            dataManager.saveData(passengers, drivers);
+        }
     }
 
+    /**
+     * Passengers loaded from an old file still have plaintext passwords; hashes them on the
+     * login pool before they are written. At most half the pool's queue is used, so logins
+     * still get through; if even that is full, the hash is done on this thread instead.
+     */
+    private void hashLegacyPasswords() {
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        for (Passenger passenger : passengers.values()) {
+            String legacyPassword = PasswordHasher.legacyPassword(passenger.getPasswordHash());
+            if (legacyPassword == null) {
+                continue;
+            }
+            Runnable rehash = () -> passenger.setPasswordHash(PasswordHasher.hash(legacyPassword));
+            if (pending.size() >= LOGIN_QUEUE_CAPACITY / 2) {
+                awaitRehash(pending.poll());
+            }
+            try {
+                pending.add(loginExecutor.submit(rehash));
+            } catch (RejectedExecutionException e) {
+                rehash.run();
+            }
+        }
+        while (!pending.isEmpty()) {
+            awaitRehash(pending.poll());
+        }
+    }
 
-    public Passenger registerPassenger(String name, String password) {
-        // Check if a passenger with the same name already exists (case-insensitive)
-        for (Passenger existingPassenger : passengers.values()) {
-            if (existingPassenger.getName().equalsIgnoreCase(name)) {
-                System.out.println("Error: A passenger with the name '" + name + "' already exists.");
-                return null; // Return null to indicate failure
+    private void awaitRehash(Future<?> rehash) {
+        try {
+            rehash.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error hashing password: " + e.getCause().getMessage());
+        }
+    }
+
+
+    /**
+     * Adds a driver to the fleet. This does not take the dispatch lock, so drivers can be
+     * onboarded while trips are being requested.
+     * @param driver The driver to add.
+     * @return true if the driver was added, false if a driver with the same ID already exists.
+     */
+    public boolean addDriver(Driver driver) {
+        if (drivers.putIfAbsent(driver.getId(), driver) != null) {
+            return false;
+        }
+        if (driver.isAvailable()) {
+            driverIndex.add(driver);
+            // removeDriver may have run since the driver was published; if so, take back the index entry.
+            if (drivers.get(driver.getId()) != driver) {
+                driverIndex.remove(driver);
             }
         }
+        return true;
+    }
+
+    /**
+     * Removes a driver from the fleet. A driver who is on a trip is removed as soon as
+     * they become free. An offer the driver is holding is withdrawn and passed on to the
+     * next candidate, so a leaving driver cannot take on a new trip.
+     * @param driverId The ID of the driver to remove.
+     * @return true if the driver was found.
+     */
+    public synchronized boolean removeDriver(String driverId) {
+        Driver driver = drivers.get(driverId);
+        if (driver == null) {
+            return false;
+        }
+        if (driver.isAvailable()) {
+            // Keeps the driver from being picked out of any offer's candidate list.
+            driver.setAvailable(false);
+            // Unpublished before unindexing, so a concurrent addDriver sees the removal and cleans up after itself.
+            drivers.remove(driverId);
+            driverIndex.remove(driver);
+            return true;
+        }
+
+        retiringDrivers.add(driver);
+        PendingOffer held = findOfferHeldBy(driver);
+        if (held != null) {
+            held.cancelTimeout();
+            // Releasing a retiring driver removes them from the fleet.
+            releaseOfferedDriver(held);
+            offerToNextCandidate(held);
+        } else {
+            System.out.println("Driver " + driver.getName() + " will be removed after their current trip.");
+        }
+        return true;
+    }
+
+    private PendingOffer findOfferHeldBy(Driver driver) {
+        for (PendingOffer offer : pendingOffers.values()) {
+            if (offer.driver == driver) {
+                return offer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy of the registered passengers, for taking a snapshot of the manager's state.
+     */
+    protected List<Passenger> listPassengers() {
+        return new ArrayList<>(passengers.values());
+    }
+
+    /**
+     * Returns a copy of the fleet, for taking a snapshot of the manager's state.
+     */
+    protected List<Driver> listDrivers() {
+        return new ArrayList<>(drivers.values());
+    }
+
+    public Driver getDriver(String driverId) {
+        return drivers.get(driverId);
+    }
+
+    public int getDriverCount() {
+        return drivers.size();
+    }
+
+    /**
+     * Streams drivers from a CSV or JSON file into the fleet. Each driver is indexed as it
+     * is read, and dispatch keeps running throughout. Drivers whose ID already exists are skipped.
+     * @param path The file to read.
+     * @return The number of drivers added.
+     */
+    public int importDrivers(String path) {
+        AtomicInteger added = new AtomicInteger();
+        int read = dataManager.importDrivers(path, driver -> {
+            if (addDriver(driver)) {
+                added.incrementAndGet();
+            }
+        });
+        System.out.println("Imported " + added.get() + " of " + read + " drivers from " + path + ".");
+        return added.get();
+    }
+
+    /**
+     * Streams the whole fleet to a CSV or JSON file.
+     * @param path The file to write.
+     * @return The number of drivers written, or -1 if writing failed.
+     */
+    public int exportDrivers(String path) {
+        return dataManager.exportDrivers(path, drivers.values());
+    }
+
+    public Passenger getPassenger(String passengerId) {
+        return passengers.get(passengerId);
+    }
+
+    public Passenger registerPassenger(String name, String password) {
+        // Reserve the name (case-insensitive) before hashing, so two registrations for it cannot both succeed.
+        String reservedName = name.toLowerCase(Locale.ROOT);
+        if (!passengerNames.add(reservedName)) {
+            System.out.println("Error: A passenger with the name '" + name + "' already exists.");
+            return null; // Return null to indicate failure
+        }
+
+        // The hash is slow on purpose, so it is computed on the login pool rather than the caller's thread.
+        String passwordHash = callOnLoginPool(() -> PasswordHasher.hash(password), "registration");
+        if (passwordHash == null) {
+            passengerNames.remove(reservedName);
+            return null;
+        }
 
         // If the name is unique, proceed with registration
         String id = "P" + passengerCounter.incrementAndGet();
-        Passenger passenger = new Passenger(id, name, password);
+        Passenger passenger = new Passenger(id, name, passwordHash);
         passengers.put(id, passenger);
         System.out.println("Passenger " + name + " registered successfully with ID: " + id);
         return passenger;
     }
 
+    /**
+     * Verifies a passenger's credentials on the login pool without opening a session.
+     * Use {@link #login(String, String)} when the caller will come back with a token.
+     * @return The passenger, or null if the login failed or the login pool is overloaded.
+     */
     public Passenger loginPassenger(String name, String password) {
+        return callOnLoginPool(() -> verifyCredentials(name, password), "login");
+    }
+
+    /**
+     * Verifies a passenger's credentials on the login pool and opens a session for them.
+     * The caller waits for the result, but the hashing itself never runs on the caller's thread.
+     * @param name The passenger's name.
+     * @param password The entered password.
+     * @return A session token, or null if the login failed or the login pool is overloaded.
+     */
+    public String login(String name, String password) {
+        Passenger passenger = callOnLoginPool(() -> verifyCredentials(name, password), "login");
+        return passenger == null ? null : sessions.open(passenger);
+    }
+
+    /**
+     * Runs a password hashing task on the login pool and waits for its result.
+     * @param task The task to run.
+     * @param action What the task is for, used in messages.
+     * @return The task's result, or null if the pool is overloaded or the task timed out or failed.
+     */
+    private <T> T callOnLoginPool(Callable<T> task, String action) {
+        Future<T> result;
+        try {
+            result = loginExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Too many " + action + " attempts right now. Please try again shortly.");
+            return null;
+        }
+
+        try {
+            return result.get(LOGIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            System.out.println("The " + action + " timed out. Please try again.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Error during " + action + ": " + e.getCause().getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the passenger for a session token without checking the password again.
+     * @param token The token returned by {@link #login(String, String)}.
+     * @return The logged-in passenger, or null if the session is unknown or expired.
+     */
+    public Passenger getSessionPassenger(String token) {
+        return sessions.get(token);
+    }
+
+    public void logout(String token) {
+        sessions.close(token);
+    }
+
+    private Passenger verifyCredentials(String name, String password) {
         // Find passenger by name
         for (Passenger passenger : passengers.values()) {
-            if (passenger.getName().equalsIgnoreCase(name) && passenger.getPassword().equals(password)) {
-                return passenger; // Return the found passenger
+            if (passenger.getName().equalsIgnoreCase(name)) {
+                if (!PasswordHasher.verify(password, passenger.getPasswordHash())) {
+                    return null;
+                }
+                // Upgrade legacy plaintext records (and outdated hashes) now that we know the password.
+                if (PasswordHasher.needsRehash(passenger.getPasswordHash())) {
+                    passenger.setPasswordHash(PasswordHasher.hash(password));
+                }
+                return passenger;
             }
         }
+        // Do the same work as for a real passenger, so the response time does not reveal which names exist.
+        PasswordHasher.verify(password, UNKNOWN_PASSENGER_HASH);
         return null; // Return null if no match is found
     }
 
     public Trip requestTrip(Passenger passenger, Location origin, Location destination) {
+        return requestTrip(passenger, origin, destination, false);
+    }
+
+    /**
+     * Requests a trip. A shared trip first tries to join a driver who is already on a
+     * shared route nearby; if none can fit it, it is offered to idle drivers like any other trip.
+     * <p>
+     * Before any search, the request has to get past admission control: a request that
+     * cannot possibly find a driver, that is over the passenger's rate limit, or that arrives
+     * while dispatch is overloaded is turned away without taking the dispatch lock.
+     * Every request counts towards the demand forecast, including the ones turned away.
+     * @param shared Whether the passenger is willing to share the ride.
+     */
+    public Trip requestTrip(Passenger passenger, Location origin, Location destination, boolean shared) {
+        // Recorded before admission, so demand that goes unserved still draws idle drivers towards it.
+        demandForecaster.recordRequest(origin);
+
+        // Shared requests may still join a pooled route when nobody is idle.
+        if (!shared && driverIndex.size() == 0) {
+            System.out.println("No available drivers at the moment. Please try again later.");
+            return null;
+        }
+        if (!admission.tryConsume(passenger.getId())) {
+            System.out.println("You are requesting trips too quickly. Please wait a moment and try again.");
+            return null;
+        }
+        if (!admission.enter()) {
+            // The passenger did nothing wrong, so a shed request does not count against their rate limit.
+            admission.refund(passenger.getId());
+            System.out.println("The service is very busy right now. Please try again shortly.");
+            return null;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return dispatchTrip(passenger, origin, destination, shared);
+        } finally {
+            admission.exit(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns how many drivers are free to take a trip right now, without scanning the fleet.
+     */
+    public int getAvailableDriverCount() {
+        return driverIndex.size();
+    }
+
+    private synchronized Trip dispatchTrip(Passenger passenger, Location origin, Location destination, boolean shared) {
         // Define the maximum allowed distance for a single trip.
         final double MAX_TRIP_DISTANCE = 500.0;
         
@@ -89,43 +538,245 @@ public class TaxiManager {
 
         String tripId = "T" + (System.currentTimeMillis() / 1000);
         Trip newTrip = new Trip(tripId, passenger, origin, destination);
+        newTrip.setShared(shared);
 
-        Driver assignedDriver = findNearestDriver(origin);
-        if (assignedDriver != null) {
-            assignedDriver.setAvailable(false);
-            newTrip.setDriver(assignedDriver);
-            newTrip.setStatus(TripStatus.IN_PROGRESS);
-            System.out.println("Trip requested. Driver " + assignedDriver.getName() + " assigned.");
-        } else {
+        if (shared) {
+            // A driver who is leaving the fleet finishes their current riders but takes no new ones.
+            PoolingMatcher.Insertion insertion = poolingMatcher.findInsertion(newTrip,
+                    driver -> !retiringDrivers.contains(driver));
+            if (insertion != null) {
+                poolingMatcher.apply(insertion);
+                newTrip.setDriver(insertion.getDriver());
+                newTrip.setStatus(TripStatus.IN_PROGRESS);
+                trips.add(newTrip);
+                System.out.printf("Shared trip requested. Joined driver %s's route (+%.1f units).\n",
+                    insertion.getDriver().getName(), insertion.getAddedDistance());
+                return newTrip;
+            }
+        }
+
+        Deque<Driver> candidates = driverIndex.nearest(origin, MAX_OFFER_CANDIDATES);
+        if (candidates.isEmpty()) {
             System.out.println("No available drivers at the moment. Please try again later.");
             return null;
         }
 
+        PendingOffer offer = new PendingOffer(newTrip, candidates);
+        pendingOffers.put(newTrip, offer);
         trips.add(newTrip);
+        offerToNextCandidate(offer);
         return newTrip;
     }
 
-    private Driver findNearestDriver(Location location) {
-        Driver nearestDriver = null;
-        double minDistance = Double.MAX_VALUE;
+    /**
+     * Accepts the open offer for a trip on behalf of the driver it was offered to.
+     * @param driver The driver accepting the offer.
+     * @param trip The trip that was offered.
+     * @return true if the driver is now assigned to the trip.
+     */
+    public synchronized boolean acceptOffer(Driver driver, Trip trip) {
+        PendingOffer offer = pendingOffers.get(trip);
+        if (offer == null || offer.driver != driver) {
+            System.out.println("This offer is no longer available.");
+            return false;
+        }
+
+        offer.cancelTimeout();
+        pendingOffers.remove(trip);
+        trip.setDriver(driver);
+        trip.setStatus(TripStatus.IN_PROGRESS);
+        if (trip.isShared()) {
+            // Open a route so later shared requests can join this driver.
+            poolingMatcher.openRoute(driver, trip);
+        }
+        System.out.println("Driver " + driver.getName() + " accepted trip " + trip.getTripId() + ".");
+        return true;
+    }
 
-        for (Driver driver : drivers.values()) {
+    /**
+     * Declines the open offer for a trip, passing it on to the next candidate driver.
+     * @param driver The driver declining the offer.
+     * @param trip The trip that was offered.
+     * @return true if the driver was holding the offer.
+     */
+    public synchronized boolean declineOffer(Driver driver, Trip trip) {
+        PendingOffer offer = pendingOffers.get(trip);
+        if (offer == null || offer.driver != driver) {
+            System.out.println("This offer is no longer available.");
+            return false;
+        }
+
+        offer.cancelTimeout();
+        System.out.println("Driver " + driver.getName() + " declined trip " + trip.getTripId() + ".");
+        releaseOfferedDriver(offer);
+        offerToNextCandidate(offer);
+        return true;
+    }
+
+    /**
+     * Returns the driver a REQUESTED trip is currently offered to.
+     * @param trip The trip waiting for a driver.
+     * @return The offered driver, or null if the trip has no open offer.
+     */
+    public synchronized Driver getOfferedDriver(Trip trip) {
+        PendingOffer offer = pendingOffers.get(trip);
+        return offer == null ? null : offer.driver;
+    }
+
+    /**
+     * Runs on the timer thread: queues the expiry and makes sure a drain is scheduled,
+     * without taking the dispatch lock.
+     */
+    private void offerExpired(PendingOffer offer, Driver driver) {
+        expiredOffers.add(() -> onOfferTimeout(offer, driver));
+        if (expiryDrainScheduled.compareAndSet(false, true)) {
+            offerExpiryExecutor.execute(this::drainExpiredOffers);
+        }
+    }
+
+    private void drainExpiredOffers() {
+        // Cleared first, so an expiry queued while we drain schedules another pass.
+        expiryDrainScheduled.set(false);
+        synchronized (this) {
+            Runnable expiry;
+            while ((expiry = expiredOffers.poll()) != null) {
+                expiry.run();
+            }
+        }
+    }
+
+    private void onOfferTimeout(PendingOffer offer, Driver driver) {
+        // The offer may have been accepted or declined just before the timer fired, in which case this does nothing.
+        expireOffer(driver, offer.trip);
+    }
+
+    /**
+     * Treats the driver as not having answered the offer for a trip, passing it on to the
+     * next candidate. This is what the offer timer does; replay calls it directly.
+     * @param driver The driver the offer was made to.
+     * @param trip The trip that was offered.
+     * @return true if the driver was still holding the offer.
+     */
+    synchronized boolean expireOffer(Driver driver, Trip trip) {
+        PendingOffer offer = pendingOffers.get(trip);
+        if (offer == null || offer.driver != driver) {
+            return false;
+        }
+        offer.cancelTimeout();
+        System.out.println("Driver " + driver.getName() + " did not respond to trip " + trip.getTripId() + ".");
+        offerTimedOut(driver, trip);
+        releaseOfferedDriver(offer);
+        offerToNextCandidate(offer);
+        return true;
+    }
+
+    /**
+     * Offers the trip to the next candidate that is still available, reserving that
+     * driver until the offer is answered or times out. If no candidates remain the
+     * trip is cancelled.
+     */
+    private void offerToNextCandidate(PendingOffer offer) {
+        Driver next;
+        while ((next = offer.candidates.poll()) != null) {
+            if (next.isAvailable()) {
+                break;
+            }
+        }
+
+        if (next == null) {
+            pendingOffers.remove(offer.trip);
+            offer.trip.setStatus(TripStatus.CANCELLED);
+            System.out.println("No driver accepted trip " + offer.trip.getTripId() + ". Please try again later.");
+            tripExpired(offer.trip);
+            return;
+        }
+
+        Driver offeredDriver = next;
+        setDriverAvailable(offeredDriver, false);
+        offer.driver = offeredDriver;
+        if (offerTimeoutMs > 0) {
+            offer.timeout = offerTimer.schedule(() -> offerExpired(offer, offeredDriver), offerTimeoutMs,
+                    TimeUnit.MILLISECONDS);
+        }
+        System.out.println("Trip requested. Offered to driver " + offeredDriver.getName() + ", waiting for acceptance.");
+    }
+
+    /**
+     * Called under the dispatch lock when a driver's offer expires without an answer,
+     * before the trip is passed on. Does nothing here; subclasses use it to record the expiry.
+     */
+    protected void offerTimedOut(Driver driver, Trip trip) {
+    }
+
+    /**
+     * Called under the dispatch lock when a trip is dropped because no driver accepted it.
+     * Does nothing here; subclasses use it to let go of anything they keep per trip.
+     */
+    protected void tripExpired(Trip trip) {
+    }
+
+    private void releaseOfferedDriver(PendingOffer offer) {
+        setDriverAvailable(offer.driver, true);
+        offer.driver = null;
+        offer.timeout = null;
+    }
+
+    /**
+     * Returns the current location of every available driver, for the repositioning engine.
+     */
+    private Map<Driver, Location> snapshotIdleDrivers() {
+        // Walks the index of available drivers rather than the whole fleet. Reads without the
+        // dispatch lock; applyRepositioning re-checks availability before moving anyone.
+        Map<Driver, Location> idle = new HashMap<>();
+        driverIndex.forEach(driver -> {
             if (driver.isAvailable()) {
-                double distance = driver.getCurrentLocation().distanceTo(location);
-                if (distance < minDistance) {
-                    minDistance = distance;
-                    nearestDriver = driver;
-                }
+                idle.put(driver, driver.getCurrentLocation());
+            }
+        });
+        return idle;
+    }
+
+    /**
+     * Moves idle drivers to the locations suggested by the repositioning engine.
+     * Drivers that were given a trip since the suggestion was computed stay where they are.
+     */
+    private synchronized void applyRepositioning(Map<Driver, Location> suggestions) {
+        for (Map.Entry<Driver, Location> entry : suggestions.entrySet()) {
+            Driver driver = entry.getKey();
+            if (driver.isAvailable()) {
+                driver.setCurrentLocation(entry.getValue());
+                driverIndex.add(driver);
             }
         }
-        return nearestDriver;
     }
 
+    /**
+     * Marks a driver as free or busy and keeps the driver index in step.
+     * A driver who was removed while busy leaves the fleet here instead of becoming free.
+     */
+    private void setDriverAvailable(Driver driver, boolean available) {
+        if (available && retiringDrivers.remove(driver)) {
+            drivers.remove(driver.getId());
+            System.out.println("Driver " + driver.getName() + " has been removed from the fleet.");
+            return;
+        }
+        driver.setAvailable(available);
+        if (available) {
+            driverIndex.add(driver);
+        } else {
+            driverIndex.remove(driver);
+        }
+    }
 
-    public void endTrip(Trip trip) {
+    /**
+     * Ends a trip in progress, charging the fare and freeing the driver once their route is empty.
+     * @param trip The trip to end.
+     * @return true if the trip was ended.
+     */
+    public synchronized boolean endTrip(Trip trip) {
         if (trip == null || trip.getStatus() != TripStatus.IN_PROGRESS) {
             System.out.println("This trip cannot be ended.");
-            return;
+            return false;
         }
         
         // Calculate currency
@@ -140,38 +791,51 @@ public class TaxiManager {
         trip.setStatus(TripStatus.COMPLETED);
 
         Driver driver = trip.getDriver();
-        driver.setAvailable(true);
         driver.setCurrentLocation(trip.getDestination());
+        // A pooled driver stays busy until every rider on the route has been dropped off.
+        setDriverAvailable(driver, poolingMatcher.completeTrip(trip));
         
         // Add the completed trip to the passenger's history
         trip.getPassenger().addTripToHistory(trip);
         
         System.out.printf("Trip %s ended. Fare: %.0f Toman\n", trip.getTripId(), fare);
+        return true;
     }
     /**
-     * Cancels a trip that is currently in progress.
+     * Cancels a trip that is still waiting for a driver or is currently in progress.
      * This sets the trip's status to CANCELLED and makes the driver available again.
      * @param trip The trip to be cancelled.
+     * @return true if the trip was cancelled.
      */
-    public void cancelTrip(Trip trip) {
-        // A trip can only be cancelled if it exists and is in progress.
-        if (trip == null || trip.getStatus() != TripStatus.IN_PROGRESS) {
+    public synchronized boolean cancelTrip(Trip trip) {
+        // A trip can only be cancelled if it exists and has not finished yet.
+        if (trip == null || (trip.getStatus() != TripStatus.IN_PROGRESS && trip.getStatus() != TripStatus.REQUESTED)) {
             System.out.println("This trip cannot be cancelled.");
-            return;
+            return false;
+        }
+
+        // Withdraw any open offer so the reserved driver is released.
+        PendingOffer offer = pendingOffers.remove(trip);
+        if (offer != null && offer.driver != null) {
+            offer.cancelTimeout();
+            releaseOfferedDriver(offer);
         }
 
         trip.setStatus(TripStatus.CANCELLED);
 
         // Make the assigned driver available again.
         Driver driver = trip.getDriver();
-        if (driver != null) {
-            driver.setAvailable(true);
-            System.out.println("Driver " + driver.getName() + " is now available.");
+        if (driver != null && poolingMatcher.removeTrip(trip)) {
+            setDriverAvailable(driver, true);
+            if (driver.isAvailable()) {
+                System.out.println("Driver " + driver.getName() + " is now available.");
+            }
         }
         // The cancelled trip remains in the passenger's history.
 
 
         System.out.println("Trip " + trip.getTripId() + " has been successfully cancelled.");
+        return true;
     }
 
     /**
@@ -179,7 +843,7 @@ public class TaxiManager {
      * @param passenger The passenger whose active trip is to be found.
      * @return The active Trip object, or null if none is found.
      */
-    public Trip findActiveTripForPassenger(Passenger passenger) {
+    public synchronized Trip findActiveTripForPassenger(Passenger passenger) {
         // Search backwards to find the most recent trip first.
         for (int i = trips.size() - 1; i >= 0; i--) {
             Trip trip = trips.get(i);
@@ -189,4 +853,27 @@ public class TaxiManager {
         }
         return null; // No active trip found
     }
-}
\ No newline at end of file
+
+    /**
+     * Tracks an open offer: the trip, the driver currently holding it, and the
+     * remaining candidates to try if that driver declines or times out.
+     */
+    private static class PendingOffer {
+        private final Trip trip;
+        private final Deque<Driver> candidates;
+        private Driver driver;
+        private TimerWheel.Timeout timeout;
+
+        PendingOffer(Trip trip, Deque<Driver> candidates) {
+            this.trip = trip;
+            this.candidates = candidates;
+        }
+
+        void cancelTimeout() {
+            // There is no timeout when offers are set never to expire.
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
+}
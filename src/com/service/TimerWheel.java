@@ -0,0 +1,243 @@
+package com.service;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A hierarchical timing wheel for scheduling a large number of short timeouts.
+ * Every timeout is a single small node in a slot list, and one worker thread
+ * advances the wheel, so outstanding timeouts cost no threads and no per-task
+ * scheduler entries. Expired tasks run on the worker thread and should be short.
+ */
+public class TimerWheel {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    // The farthest deadline (in ticks) that fits in the wheel without clamping.
+    private static final long MAX_SPAN = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final Timeout[][] slots = new Timeout[LEVELS][WHEEL_SIZE];
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    // Only written by the worker; read by schedulers to compute deadlines.
+    private volatile long currentTick;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a wheel and starts its worker thread.
+     * @param tickDuration The resolution of the wheel.
+     * @param unit The unit of the tick duration.
+     * @param name The name of the worker thread.
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, String name) {
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     * @param task The task to run on expiry.
+     * @param delay The delay before the task runs.
+     * @param unit The unit of the delay.
+     * @return A handle that can be used to cancel the task.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        // Round up so a task never fires before its delay has passed.
+        long dueNanos = System.nanoTime() - startNanos + unit.toNanos(delay);
+        long deadline = (dueNanos + tickNanos - 1) / tickNanos;
+        // Never schedule into a tick the worker may already have processed.
+        deadline = Math.max(deadline, currentTick + 1);
+        Timeout timeout = new Timeout(task, deadline);
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stops the worker thread. Pending timeouts are discarded.
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            long wakeAt = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = wakeAt - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+                continue;
+            }
+            drainCancelled();
+            drainNew(tick);
+            tick++;
+            currentTick = tick;
+            advance(tick);
+        }
+    }
+
+    private void drainCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.level >= 0) {
+                unlink(timeout);
+            }
+        }
+    }
+
+    private void drainNew(long tick) {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.state.get() == Timeout.PENDING) {
+                insert(timeout, tick);
+            }
+        }
+    }
+
+    /**
+     * Cascades any higher-level slots that come due at this tick, then expires
+     * everything in the level 0 slot.
+     */
+    private void advance(long tick) {
+        for (int level = 1; level < LEVELS; level++) {
+            long lowerBits = tick & ((1L << (WHEEL_BITS * level)) - 1);
+            if (lowerBits != 0) break;
+            int index = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            Timeout timeout = detachSlot(level, index);
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                insert(timeout, tick);
+                timeout = next;
+            }
+        }
+
+        Timeout timeout = detachSlot(0, (int) (tick & WHEEL_MASK));
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            if (timeout.deadline > tick) {
+                insert(timeout, tick);
+            } else {
+                timeout.expire();
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Places a timeout in the lowest level whose range still covers its deadline.
+     */
+    private void insert(Timeout timeout, long tick) {
+        long deadline = Math.max(timeout.deadline, tick);
+        int level = LEVELS - 1;
+        if (deadline - tick > MAX_SPAN) {
+            // Too far out; park it at the top level and let cascading re-place it.
+            deadline = tick + MAX_SPAN;
+        } else {
+            for (int l = 0; l < LEVELS; l++) {
+                if (((deadline ^ tick) >>> (WHEEL_BITS * (l + 1))) == 0) {
+                    level = l;
+                    break;
+                }
+            }
+        }
+        int index = (int) ((deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        timeout.level = level;
+        timeout.index = index;
+        Timeout head = slots[level][index];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[level][index] = timeout;
+    }
+
+    private Timeout detachSlot(int level, int index) {
+        Timeout head = slots[level][index];
+        slots[level][index] = null;
+        for (Timeout t = head; t != null; t = t.next) {
+            t.level = -1;
+        }
+        return head;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.level][timeout.index] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    /**
+     * A handle to a scheduled task.
+     */
+    public final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Slot bookkeeping, only touched by the worker thread.
+        private Timeout prev;
+        private Timeout next;
+        private int level = -1;
+        private int index;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancels the task if it has not run yet.
+         * @return true if the task was cancelled, false if it already ran or was cancelled.
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() { return state.get() == CANCELLED; }
+        public boolean isExpired() { return state.get() == EXPIRED; }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error running scheduled task: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.service;
+
+import com.model.Driver;
+import com.model.Location;
+import com.model.Passenger;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Writes every call made to a {@link RecordingTaxiManager} to a compact binary file,
+ * so the same traffic can later be fed back through {@link TrafficReplayer}.
+ * <p>
+ * A recording starts with a magic number and version and a snapshot of the passengers and
+ * drivers the manager started with, followed by one record per call:
+ * a type byte, the call's start time in microseconds since the recording began, its
+ * latency in nanoseconds, the recording thread, and the call's arguments and result.
+ * Callers measure the start time and latency themselves and pass them in.
+ * Offers that expire without an answer are written as records of their own, with no latency,
+ * so a replay can expire the same offers without running the offer timer.
+ * Numbers are written as variable-length integers, so a typical record is a few dozen bytes.
+ * <p>
+ * Passwords are never written. They are replaced by an HMAC under a random key that only
+ * lives for the length of the recording, which keeps register and login calls consistent
+ * with each other on replay without revealing anything about the real passwords.
+ */
+public class TrafficRecorder implements Closeable {
+    static final int MAGIC = 0x54585250; // "TXRP"
+    static final int VERSION = 3;
+
+    static final byte REGISTER = 1;
+    static final byte LOGIN = 2;
+    static final byte REQUEST = 3;
+    static final byte ACCEPT = 4;
+    static final byte DECLINE = 5;
+    static final byte END = 6;
+    static final byte CANCEL = 7;
+    static final byte ADD_DRIVER = 8;
+    static final byte REMOVE_DRIVER = 9;
+    static final byte OFFER_EXPIRED = 10;
+
+    private final DataOutputStream out;
+    private final long startNanos = System.nanoTime();
+    private final Mac passwordMac;
+    private final AtomicInteger threadCounter = new AtomicInteger();
+    private final ThreadLocal<Integer> threadIds = ThreadLocal.withInitial(threadCounter::incrementAndGet);
+    private boolean failed;
+
+    /**
+     * Creates a new recording, overwriting the file if it exists.
+     * @param path The file to record to.
+     */
+    public TrafficRecorder(String path) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        try {
+            byte[] key = new byte[32];
+            new SecureRandom().nextBytes(key);
+            this.passwordMac = Mac.getInstance("HmacSHA256");
+            this.passwordMac.init(new SecretKeySpec(key, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Password masking is not available: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the passengers and drivers the manager starts with, so a replay can begin from
+     * the same state. Must be called once, before any call is recorded. Passwords are not
+     * part of the snapshot.
+     */
+    public synchronized void recordSnapshot(Collection<Passenger> passengers, Collection<Driver> drivers) {
+        try {
+            writeVarLong(out, passengers.size());
+            for (Passenger passenger : passengers) {
+                out.writeUTF(passenger.getId());
+                out.writeUTF(passenger.getName());
+            }
+            writeVarLong(out, drivers.size());
+            for (Driver driver : drivers) {
+                out.writeUTF(driver.getId());
+                out.writeUTF(driver.getName());
+                out.writeUTF(driver.getCarDetails());
+                writeLocation(driver.getCurrentLocation());
+                writeVarLong(out, driver.getSeats());
+                out.writeBoolean(driver.isAvailable());
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordRegister(long start, long latencyNanos, String name, String password,
+                                            String passengerId) {
+        try {
+            header(REGISTER, start, latencyNanos);
+            out.writeUTF(name);
+            out.writeUTF(maskPassword(password));
+            out.writeUTF(passengerId == null ? "" : passengerId);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordLogin(long start, long latencyNanos, String name, String password,
+                                         String passengerId) {
+        try {
+            header(LOGIN, start, latencyNanos);
+            out.writeUTF(name);
+            out.writeUTF(maskPassword(password));
+            out.writeUTF(passengerId == null ? "" : passengerId);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * @param tripRef The recording's reference for the resulting trip, or 0 if the request failed.
+     */
+    public synchronized void recordRequest(long start, long latencyNanos, String passengerId, Location origin,
+                                           Location destination, boolean shared, int tripRef) {
+        try {
+            header(REQUEST, start, latencyNanos);
+            out.writeUTF(passengerId);
+            writeLocation(origin);
+            writeLocation(destination);
+            out.writeBoolean(shared);
+            writeVarLong(out, tripRef);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordAccept(long start, long latencyNanos, String driverId, int tripRef, boolean accepted) {
+        try {
+            header(ACCEPT, start, latencyNanos);
+            out.writeUTF(driverId);
+            writeVarLong(out, tripRef);
+            out.writeBoolean(accepted);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordDecline(long start, long latencyNanos, String driverId, int tripRef,
+                                           boolean declined) {
+        try {
+            header(DECLINE, start, latencyNanos);
+            out.writeUTF(driverId);
+            writeVarLong(out, tripRef);
+            out.writeBoolean(declined);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordEnd(long start, long latencyNanos, int tripRef, boolean ended) {
+        try {
+            header(END, start, latencyNanos);
+            writeVarLong(out, tripRef);
+            out.writeBoolean(ended);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordCancel(long start, long latencyNanos, int tripRef, boolean cancelled) {
+        try {
+            header(CANCEL, start, latencyNanos);
+            writeVarLong(out, tripRef);
+            out.writeBoolean(cancelled);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * @param at The {@link System#nanoTime()} at which the offer expired.
+     */
+    public synchronized void recordOfferExpired(long at, String driverId, int tripRef) {
+        try {
+            header(OFFER_EXPIRED, at, 0);
+            out.writeUTF(driverId);
+            writeVarLong(out, tripRef);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordAddDriver(long start, long latencyNanos, String id, String name, String carDetails,
+                                             Location location, int seats, boolean added) {
+        try {
+            header(ADD_DRIVER, start, latencyNanos);
+            out.writeUTF(id);
+            out.writeUTF(name);
+            out.writeUTF(carDetails);
+            writeLocation(location);
+            writeVarLong(out, seats);
+            out.writeBoolean(added);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void recordRemoveDriver(long start, long latencyNanos, String driverId, boolean removed) {
+        try {
+            header(REMOVE_DRIVER, start, latencyNanos);
+            out.writeUTF(driverId);
+            out.writeBoolean(removed);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes the fields every record starts with.
+     * @param start The {@link System#nanoTime()} at which the call started.
+     * @param latencyNanos How long the call took, measured by the caller before it came here,
+     *                     so time spent waiting for this recorder's lock is not counted.
+     */
+    private void header(byte type, long start, long latencyNanos) throws IOException {
+        out.writeByte(type);
+        writeVarLong(out, Math.max(0, (start - startNanos) / 1000));
+        writeVarLong(out, latencyNanos);
+        writeVarLong(out, threadIds.get());
+    }
+
+    private void writeLocation(Location location) throws IOException {
+        writeVarLong(out, zigZag(location.getX()));
+        writeVarLong(out, zigZag(location.getY()));
+    }
+
+    private String maskPassword(String password) {
+        byte[] digest = passwordMac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private void fail(IOException e) {
+        // Report once; recording must never break the calls being recorded.
+        if (!failed) {
+            failed = true;
+            System.err.println("Error writing traffic recording: " + e.getMessage());
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length number");
+    }
+
+    static long zigZag(int value) {
+        return ((long) value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(long value) {
+        return (int) ((value >>> 1) ^ -(value & 1));
+    }
+}
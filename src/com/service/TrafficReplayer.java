@@ -0,0 +1,612 @@
+package com.service;
+
+import com.model.*;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a recording made by {@link TrafficRecorder} back into a fresh TaxiManager and
+ * reports throughput and latency, so the performance of two builds can be compared on
+ * exactly the same traffic.
+ * <p>
+ * The TaxiManager is built from the passengers and drivers stored at the start of the
+ * recording, not from the data files, so every replay starts from the recorded state.
+ * <p>
+ * Calls made on the same recorded thread are replayed in order on the same worker.
+ * Calls that refer to a trip made on another thread wait until that trip exists, and the
+ * calls on one trip are replayed in their recorded order whichever workers they land on.
+ * Replay can run at the original pace, at a multiple of it, or as fast as possible. Request
+ * rate limits are measured against each call's recorded start time rather than the wall clock,
+ * and repositioning is sped up by the same factor as the replay, or switched off when replaying
+ * as fast as possible. Offers never time out on their own during replay: each offer that expired
+ * in the recording is expired explicitly at its recorded point. Either way the manager does not
+ * turn away calls that went through when the traffic was recorded.
+ * <p>
+ * Usage: {@code TrafficReplayer <recording> [--speed <factor> | --max] [--threads <n>]
+ * [--report <file>] [--baseline <file>]}
+ */
+public class TrafficReplayer {
+    private static final long TRIP_WAIT_SECONDS = 10;
+    private static final String[] OPERATION_NAMES = {
+        "", "register", "login", "request", "accept", "decline", "end", "cancel", "addDriver", "removeDriver",
+        "offerExpired"
+    };
+
+    private final List<Passenger> initialPassengers;
+    private final List<Driver> initialDrivers;
+    private final List<Record> records;
+
+    public TrafficReplayer(List<Passenger> initialPassengers, List<Driver> initialDrivers, List<Record> records) {
+        this.initialPassengers = initialPassengers;
+        this.initialDrivers = initialDrivers;
+        this.records = records;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: TrafficReplayer <recording> [--speed <factor> | --max] [--threads <n>] "
+                + "[--report <file>] [--baseline <file>]");
+            return;
+        }
+
+        double speed = 1.0;
+        int threads = 4;
+        String reportPath = null;
+        String baselinePath = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--speed":
+                    speed = Double.parseDouble(args[++i]);
+                    break;
+                case "--max":
+                    speed = Double.POSITIVE_INFINITY;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--report":
+                    reportPath = args[++i];
+                    break;
+                case "--baseline":
+                    baselinePath = args[++i];
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        TrafficReplayer replayer = read(args[0]);
+        PrintStream console = System.out;
+        Report report;
+        // TaxiManager talks to the console on every call; keep that out of the measurements.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        TaxiManager manager = replayer.newManager(speed);
+        try {
+            report = replayer.replay(manager, speed, threads);
+        } finally {
+            manager.shutdown();
+            System.setOut(console);
+        }
+
+        report.print(console);
+        if (baselinePath != null) {
+            report.printDiff(Report.load(baselinePath), console);
+        }
+        if (reportPath != null) {
+            report.save(reportPath);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Reads a whole recording into memory.
+     */
+    public static TrafficReplayer read(String path) throws IOException {
+        List<Passenger> passengers = new ArrayList<>();
+        List<Driver> drivers = new ArrayList<>();
+        List<Record> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            if (in.readInt() != TrafficRecorder.MAGIC) {
+                throw new IOException(path + " is not a traffic recording");
+            }
+            int version = in.readShort();
+            if (version != TrafficRecorder.VERSION) {
+                throw new IOException("Unsupported recording version " + version);
+            }
+
+            long passengerCount = TrafficRecorder.readVarLong(in);
+            for (long i = 0; i < passengerCount; i++) {
+                passengers.add(new Passenger(in.readUTF(), in.readUTF(), null));
+            }
+            long driverCount = TrafficRecorder.readVarLong(in);
+            for (long i = 0; i < driverCount; i++) {
+                Driver driver = new Driver(in.readUTF(), in.readUTF(), in.readUTF(), Record.readLocation(in));
+                driver.setSeats((int) TrafficRecorder.readVarLong(in));
+                driver.setAvailable(in.readBoolean());
+                drivers.add(driver);
+            }
+
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                records.add(Record.read(type, in));
+            }
+        }
+        return new TrafficReplayer(passengers, drivers, records);
+    }
+
+    /**
+     * Creates a TaxiManager holding the passengers and drivers the recording started from.
+     * <p>
+     * The recording only has masked passwords, so each passenger is given the masked password
+     * of their first successful recorded login; a passenger who never logged in successfully
+     * gets none that works. These are stored as legacy records: the first login then costs
+     * one hash to upgrade the record, just as checking a real hash would.
+     * @param speed The replay speed, which repositioning is scaled by. Offer timeouts are switched
+     *              off at any speed, since the recorded expiries are replayed instead.
+     */
+    public TaxiManager newManager(double speed) {
+        Map<String, String> passwords = new HashMap<>();
+        for (Record record : records) {
+            if (record.type == TrafficRecorder.LOGIN && record.succeeded) {
+                passwords.putIfAbsent(record.passengerId, record.password);
+            }
+        }
+
+        List<Passenger> passengers = new ArrayList<>();
+        for (Passenger recorded : initialPassengers) {
+            String password = passwords.get(recorded.getId());
+            passengers.add(new Passenger(recorded.getId(), recorded.getName(),
+                password == null ? null : PasswordHasher.legacy(password)));
+        }
+        // Fresh copies, so the same recording can be replayed more than once.
+        List<Driver> drivers = new ArrayList<>();
+        for (Driver recorded : initialDrivers) {
+            Driver driver = new Driver(recorded.getId(), recorded.getName(), recorded.getCarDetails(),
+                recorded.getCurrentLocation());
+            driver.setSeats(recorded.getSeats());
+            driver.setAvailable(recorded.isAvailable());
+            drivers.add(driver);
+        }
+        return new TaxiManager(passengers, drivers, speed, ReplayState::recordedTime, false);
+    }
+
+    /**
+     * Replays the recording against a TaxiManager.
+     * @param manager The manager to replay into, normally from {@link #newManager(double)}.
+     * @param speed How many times faster than the original to replay; infinity means no waiting at all.
+     * @param threads The number of worker threads.
+     * @return The measurements for this replay next to the recorded ones.
+     */
+    public Report replay(TaxiManager manager, double speed, int threads) throws InterruptedException {
+        List<List<Record>> perWorker = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            perWorker.add(new ArrayList<>());
+        }
+        for (Record record : records) {
+            perWorker.get(record.thread % threads).add(record);
+        }
+
+        // Each call on a trip waits for the one recorded before it, e.g. an accept for the expiry
+        // or decline that passed the offer on. Calls are recorded just after they leave the dispatch
+        // lock and expiries while still holding it, so the file has them in the order they ran.
+        Map<Record, CountDownLatch> done = new IdentityHashMap<>();
+        Map<Record, Record> previousOnTrip = new IdentityHashMap<>();
+        Map<Integer, Record> lastOnTrip = new HashMap<>();
+        for (Record record : records) {
+            done.put(record, new CountDownLatch(1));
+            if (record.tripRef != 0 && record.type != TrafficRecorder.REQUEST) {
+                Record previous = lastOnTrip.put(record.tripRef, record);
+                if (previous != null) previousOnTrip.put(record, previous);
+            }
+        }
+
+        Report report = new Report();
+        ReplayState state = new ReplayState(manager);
+        long startNanos = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            List<Record> assigned = perWorker.get(i);
+            Thread worker = new Thread(() -> {
+                for (Record record : assigned) {
+                    if (!Double.isInfinite(speed)) {
+                        long due = startNanos + (long) (record.startMicros * 1000 / speed);
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            try {
+                                TimeUnit.NANOSECONDS.sleep(wait);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                    Record previous = previousOnTrip.get(record);
+                    try {
+                        if (previous != null) done.get(previous).await(TRIP_WAIT_SECONDS, TimeUnit.SECONDS);
+                        state.apply(record, report);
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        done.get(record).countDown();
+                    }
+                }
+            }, "replay-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report.wallNanos = System.nanoTime() - startNanos;
+        return report;
+    }
+
+    /**
+     * Maps the passengers and trips named in the recording to the ones created during replay.
+     */
+    private static class ReplayState {
+        // The recorded start time of the call each worker is replaying.
+        private static final ThreadLocal<Long> CURRENT_CALL_NANOS = ThreadLocal.withInitial(() -> 0L);
+
+        private final TaxiManager manager;
+        private final Map<String, Passenger> passengers = new ConcurrentHashMap<>();
+        private final Map<Integer, CompletableFuture<Trip>> trips = new ConcurrentHashMap<>();
+
+        ReplayState(TaxiManager manager) {
+            this.manager = manager;
+        }
+
+        void apply(Record record, Report report) {
+            OperationStats stats = report.stats(record.type);
+            stats.recorded(record.latencyNanos);
+
+            // Look up everything the call needs before the clock starts.
+            Passenger passenger = null;
+            Trip trip = null;
+            Driver driver = null;
+            if (record.type == TrafficRecorder.REQUEST) {
+                passenger = passengers.get(record.passengerId);
+                if (passenger == null) {
+                    passenger = manager.getPassenger(record.passengerId);
+                }
+                if (passenger == null) {
+                    // Release anything waiting on this trip; it will never exist.
+                    if (record.tripRef != 0) tripFuture(record.tripRef).complete(null);
+                    stats.skip();
+                    return;
+                }
+            }
+            boolean onTrip = record.type >= TrafficRecorder.ACCEPT && record.type <= TrafficRecorder.CANCEL
+                    || record.type == TrafficRecorder.OFFER_EXPIRED;
+            if (onTrip && record.tripRef != 0) {
+                trip = awaitTrip(record.tripRef);
+                if (trip == null) {
+                    stats.skip();
+                    return;
+                }
+            }
+            if (record.type == TrafficRecorder.ACCEPT || record.type == TrafficRecorder.DECLINE
+                    || record.type == TrafficRecorder.OFFER_EXPIRED) {
+                driver = manager.getDriver(record.driverId);
+                if (driver == null) {
+                    stats.skip();
+                    return;
+                }
+            }
+
+            CURRENT_CALL_NANOS.set(record.startMicros * 1000);
+            long start = System.nanoTime();
+            boolean succeeded;
+            switch (record.type) {
+                case TrafficRecorder.REGISTER: {
+                    Passenger registered = manager.registerPassenger(record.name, record.password);
+                    succeeded = registered != null;
+                    if (succeeded && !record.passengerId.isEmpty()) passengers.put(record.passengerId, registered);
+                    break;
+                }
+                case TrafficRecorder.LOGIN: {
+                    Passenger loggedIn = manager.getSessionPassenger(manager.login(record.name, record.password));
+                    succeeded = loggedIn != null;
+                    if (succeeded && !record.passengerId.isEmpty()) passengers.put(record.passengerId, loggedIn);
+                    break;
+                }
+                case TrafficRecorder.REQUEST: {
+                    Trip requested = manager.requestTrip(passenger, record.origin, record.destination, record.shared);
+                    succeeded = requested != null;
+                    if (record.tripRef != 0) tripFuture(record.tripRef).complete(requested);
+                    break;
+                }
+                case TrafficRecorder.ACCEPT:
+                    succeeded = manager.acceptOffer(driver, trip);
+                    break;
+                case TrafficRecorder.DECLINE:
+                    succeeded = manager.declineOffer(driver, trip);
+                    break;
+                case TrafficRecorder.END:
+                    succeeded = manager.endTrip(trip);
+                    break;
+                case TrafficRecorder.CANCEL:
+                    succeeded = manager.cancelTrip(trip);
+                    break;
+                case TrafficRecorder.ADD_DRIVER: {
+                    Driver added = new Driver(record.driverId, record.name, record.carDetails, record.origin);
+                    added.setSeats(record.seats);
+                    succeeded = manager.addDriver(added);
+                    break;
+                }
+                case TrafficRecorder.REMOVE_DRIVER:
+                    succeeded = manager.removeDriver(record.driverId);
+                    break;
+                case TrafficRecorder.OFFER_EXPIRED:
+                    // Diverges if the driver no longer holds the offer, e.g. because they already answered it.
+                    succeeded = manager.expireOffer(driver, trip);
+                    break;
+                default:
+                    return;
+            }
+            stats.replayed(System.nanoTime() - start, succeeded != record.succeeded);
+        }
+
+        static long recordedTime() {
+            return CURRENT_CALL_NANOS.get();
+        }
+
+        private CompletableFuture<Trip> tripFuture(int ref) {
+            return trips.computeIfAbsent(ref, key -> new CompletableFuture<>());
+        }
+
+        private Trip awaitTrip(int ref) {
+            try {
+                return tripFuture(ref).get(TRIP_WAIT_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * One recorded call. Only the fields that belong to the call's type are set.
+     */
+    public static class Record {
+        private byte type;
+        private long startMicros;
+        private long latencyNanos;
+        private int thread;
+        private String name;
+        private String password;
+        private String passengerId = "";
+        private String driverId;
+        private String carDetails;
+        private Location origin;
+        private Location destination;
+        private boolean shared;
+        private int tripRef;
+        private int seats;
+        private boolean succeeded = true;
+
+        static Record read(byte type, DataInputStream in) throws IOException {
+            Record r = new Record();
+            r.type = type;
+            r.startMicros = TrafficRecorder.readVarLong(in);
+            r.latencyNanos = TrafficRecorder.readVarLong(in);
+            r.thread = (int) TrafficRecorder.readVarLong(in);
+            switch (type) {
+                case TrafficRecorder.REGISTER:
+                case TrafficRecorder.LOGIN:
+                    r.name = in.readUTF();
+                    r.password = in.readUTF();
+                    r.passengerId = in.readUTF();
+                    r.succeeded = !r.passengerId.isEmpty();
+                    break;
+                case TrafficRecorder.REQUEST:
+                    r.passengerId = in.readUTF();
+                    r.origin = readLocation(in);
+                    r.destination = readLocation(in);
+                    r.shared = in.readBoolean();
+                    r.tripRef = (int) TrafficRecorder.readVarLong(in);
+                    r.succeeded = r.tripRef != 0;
+                    break;
+                case TrafficRecorder.ACCEPT:
+                    r.driverId = in.readUTF();
+                    r.tripRef = (int) TrafficRecorder.readVarLong(in);
+                    r.succeeded = in.readBoolean();
+                    break;
+                case TrafficRecorder.DECLINE:
+                    r.driverId = in.readUTF();
+                    r.tripRef = (int) TrafficRecorder.readVarLong(in);
+                    r.succeeded = in.readBoolean();
+                    break;
+                case TrafficRecorder.END:
+                case TrafficRecorder.CANCEL:
+                    r.tripRef = (int) TrafficRecorder.readVarLong(in);
+                    r.succeeded = in.readBoolean();
+                    break;
+                case TrafficRecorder.ADD_DRIVER:
+                    r.driverId = in.readUTF();
+                    r.name = in.readUTF();
+                    r.carDetails = in.readUTF();
+                    r.origin = readLocation(in);
+                    r.seats = (int) TrafficRecorder.readVarLong(in);
+                    r.succeeded = in.readBoolean();
+                    break;
+                case TrafficRecorder.REMOVE_DRIVER:
+                    r.driverId = in.readUTF();
+                    r.succeeded = in.readBoolean();
+                    break;
+                case TrafficRecorder.OFFER_EXPIRED:
+                    r.driverId = in.readUTF();
+                    r.tripRef = (int) TrafficRecorder.readVarLong(in);
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+            return r;
+        }
+
+        private static Location readLocation(DataInputStream in) throws IOException {
+            int x = TrafficRecorder.unZigZag(TrafficRecorder.readVarLong(in));
+            int y = TrafficRecorder.unZigZag(TrafficRecorder.readVarLong(in));
+            return new Location(x, y);
+        }
+    }
+
+    /**
+     * Latency and outcome counts for one kind of call.
+     */
+    private static class OperationStats {
+        // Workers share these, so they are only updated through the synchronized methods below.
+        private final LongList recordedLatencies = new LongList();
+        private final LongList replayLatencies = new LongList();
+        // Replayed calls whose outcome differed from the recorded one; skipped calls are not counted.
+        private int diverged;
+        private int skipped;
+
+        synchronized void recorded(long latencyNanos) {
+            recordedLatencies.add(latencyNanos);
+        }
+
+        synchronized void replayed(long latencyNanos, boolean diverged) {
+            replayLatencies.add(latencyNanos);
+            if (diverged) this.diverged++;
+        }
+
+        synchronized void skip() {
+            skipped++;
+        }
+    }
+
+    /**
+     * The results of a replay, which can be printed, saved, and compared with an earlier run.
+     */
+    public static class Report {
+        private final Map<String, OperationStats> operations = new LinkedHashMap<>();
+        private long wallNanos;
+
+        private synchronized OperationStats stats(byte type) {
+            return operations.computeIfAbsent(OPERATION_NAMES[type], key -> new OperationStats());
+        }
+
+        public void print(PrintStream out) {
+            out.printf("Replayed in %.2f s%n", wallNanos / 1e9);
+            out.printf("%-13s %8s %8s %12s %12s %12s %12s %9s%n", "operation", "calls", "skipped",
+                "rec p50 us", "rec p99 us", "p50 us", "p99 us", "diverged");
+            for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+                OperationStats s = entry.getValue();
+                out.printf("%-13s %8d %8d %12.1f %12.1f %12.1f %12.1f %9d%n", entry.getKey(),
+                    s.replayLatencies.size(), s.skipped,
+                    s.recordedLatencies.percentile(0.50) / 1e3, s.recordedLatencies.percentile(0.99) / 1e3,
+                    s.replayLatencies.percentile(0.50) / 1e3, s.replayLatencies.percentile(0.99) / 1e3,
+                    s.diverged);
+            }
+            out.printf("Throughput: %.0f calls/s%n", throughput());
+        }
+
+        /**
+         * Prints how this replay compares with a report saved from an earlier build.
+         */
+        public void printDiff(Properties baseline, PrintStream out) {
+            out.println("Compared with baseline:");
+            out.printf("  throughput %s%n", change(Double.parseDouble(baseline.getProperty("throughput", "0")), throughput()));
+            for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+                String op = entry.getKey();
+                if (!baseline.containsKey(op + ".p50")) continue;
+                OperationStats s = entry.getValue();
+                out.printf("  %-13s p50 %s, p99 %s%n", op,
+                    change(Double.parseDouble(baseline.getProperty(op + ".p50")), s.replayLatencies.percentile(0.50)),
+                    change(Double.parseDouble(baseline.getProperty(op + ".p99")), s.replayLatencies.percentile(0.99)));
+            }
+        }
+
+        public void save(String path) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("throughput", Double.toString(throughput()));
+            for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+                OperationStats s = entry.getValue();
+                properties.setProperty(entry.getKey() + ".calls", Integer.toString(s.replayLatencies.size()));
+                properties.setProperty(entry.getKey() + ".p50", Long.toString(s.replayLatencies.percentile(0.50)));
+                properties.setProperty(entry.getKey() + ".p99", Long.toString(s.replayLatencies.percentile(0.99)));
+                properties.setProperty(entry.getKey() + ".diverged", Integer.toString(s.diverged));
+            }
+            try (FileWriter writer = new FileWriter(path)) {
+                properties.store(writer, "Traffic replay report (latencies in nanoseconds)");
+            }
+        }
+
+        public static Properties load(String path) throws IOException {
+            Properties properties = new Properties();
+            try (FileReader reader = new FileReader(path)) {
+                properties.load(reader);
+            }
+            return properties;
+        }
+
+        private double throughput() {
+            long calls = 0;
+            for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+                // Expiries are events the manager raised itself, not calls made to it.
+                if (entry.getKey().equals(OPERATION_NAMES[TrafficRecorder.OFFER_EXPIRED])) continue;
+                calls += entry.getValue().replayLatencies.size();
+            }
+            return wallNanos == 0 ? 0 : calls / (wallNanos / 1e9);
+        }
+
+        private static String change(double before, double after) {
+            if (before == 0) {
+                return "n/a";
+            }
+            return String.format("%+.1f%%", (after - before) * 100 / before);
+        }
+    }
+
+    /**
+     * A growable list of longs that avoids boxing every latency sample. Not thread-safe.
+     */
+    private static class LongList {
+        private long[] values = new long[64];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long percentile(double p) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) (p * size))];
+        }
+    }
+}